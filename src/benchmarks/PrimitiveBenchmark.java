@@ -0,0 +1,97 @@
+package benchmarks;
+
+import org.karma.serialization.*;
+
+import java.nio.ByteOrder;
+
+public class PrimitiveBenchmark {
+
+	private static final int COUNT = 1 << 16; // Primitives per round
+	private static final int ROUNDS = 200;
+
+	/**
+	 <h1>Primitive benchmark:</h1>
+
+	    Measures the cost of writing and reading one primitive.
+	    Run it with a few warm-up rounds on a quiet machine, only the last result of each case matters.
+	 */
+	public static void main(String[] args) {
+		for (var order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+			for (int warmUp = 0; warmUp < 3; warmUp++) {
+				System.out.println("--- " + order);
+				run(order);
+			}
+		}
+	}
+
+	private static void run(ByteOrder order) {
+		var output = QuickSerializer.outputOf(COUNT * Long.BYTES + 1).order(order);
+		long sink = 0;
+
+		var time = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			output.reset();
+			for (int i = 0; i < COUNT; i++) {
+				output.writeInt(i);
+			}
+		}
+		report("writeInt", time);
+
+		var input = QuickSerializer.inputOf(output.getBytes()).order(order);
+		time = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			input.reset(output.getBytes());
+			for (int i = 0; i < COUNT; i++) {
+				sink += input.readInt();
+			}
+		}
+		report("readInt", time);
+
+		time = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			output.reset();
+			for (int i = 0; i < COUNT; i++) {
+				output.writeLong(i);
+			}
+		}
+		report("writeLong", time);
+
+		var bytes = output.getBytes();
+		time = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			input.reset(bytes);
+			for (int i = 0; i < COUNT; i++) {
+				sink += input.readLong();
+			}
+		}
+		report("readLong", time);
+
+		time = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			output.reset();
+			for (int i = 0; i < COUNT; i++) {
+				output.writeDouble(i);
+			}
+		}
+		report("writeDouble", time);
+
+		bytes = output.getBytes();
+		time = System.nanoTime();
+		for (int round = 0; round < ROUNDS; round++) {
+			input.reset(bytes);
+			for (int i = 0; i < COUNT; i++) {
+				sink += (long) input.readDouble();
+			}
+		}
+		report("readDouble", time);
+
+		if (sink == 42) {
+			System.out.println(); // Keeps the reads alive
+		}
+	}
+
+	private static void report(String name, long startTime) {
+		var nanos = (double) (System.nanoTime() - startTime) / ((long) COUNT * ROUNDS);
+		System.out.printf("%-12s %6.2f ns/op%n", name, nanos);
+	}
+}
@@ -12,10 +12,9 @@ public class FirstExample {
 	public static void main(String[] args) {
 		var dataToSerialize = QuickSerializer.outputOf(1024); // Creating a buffer with 1024 bytes
 		/*
-			Requires 60 bytes.
+			Requires 16 bytes.
 
-			2 - type signature (String = 0x10)
-			4 - type data size
+			4 - string length (in UTF-8 bytes)
 
 			...string data
 
@@ -28,14 +27,14 @@ public class FirstExample {
 		dataToSerialize.writeBoolean(true);
 		dataToSerialize.writeDouble(Math.PI); // 8 bytes
 
-		var serializedData = QuickSerializer.inputOf(dataToSerialize.getBytes()); // 69 bytes
+		var serializedData = QuickSerializer.inputOf(dataToSerialize.getBytes()); // 26 bytes
 
 		System.out.println(serializedData.readString());
 		System.out.println(serializedData.readBoolean());
 		System.out.println(serializedData.readDouble());
 
 		/*
-			Only 69 bytes were used here. Accordingly,
+			Only 26 bytes were used here. Accordingly,
 			it would have been necessary to allocate exactly that much initially,
 			but this is not critical.
 
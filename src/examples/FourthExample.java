@@ -0,0 +1,143 @@
+package examples;
+
+import org.karma.serialization.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class FourthExample {
+
+	/**
+	 <h1>Fourth example:</h1>
+
+		Objects over sockets with SerializationChannelCodec.
+
+	    A server on the loopback serves many connections from one selector thread,
+	    it sends back every apple it receives. Every client sends its apples and checks the answers.
+	 */
+
+	private static final int CLIENTS = 64;
+	private static final int APPLES = 1000;
+
+	public static void main(String[] args) throws Exception {
+		try (var server = ServerSocketChannel.open(StandardProtocolFamily.INET)) {
+			server.bind(new InetSocketAddress("127.0.0.1", 0));
+			var address = (InetSocketAddress) server.getLocalAddress();
+			var echoed = new AtomicInteger();
+
+			var serverThread = new Thread(() -> serve(server, echoed));
+			serverThread.setDaemon(true);
+			serverThread.start();
+
+			ExecutorService clients = Executors.newFixedThreadPool(16);
+			try {
+				var results = new Future<?>[CLIENTS];
+				for (int i = 0; i < CLIENTS; i++) {
+					var client = i;
+					results[i] = clients.submit(() -> {
+						runClient(address, client);
+						return null;
+					});
+				}
+				for (var result : results) {
+					result.get(); // Throws if a client got a wrong answer
+				}
+			} finally {
+				clients.shutdown();
+			}
+
+			System.out.println(CLIENTS + " clients got back " + echoed.get() + " apples");
+		}
+
+		/*
+			The server never waits for a whole object: receive() takes what the socket has,
+			and hasObject() tells when an object is complete. A peer that announces an object
+			longer than maxObjectLength() is disconnected as soon as its header arrives
+		 */
+	}
+
+	/**
+		A blocking client: it sends all apples at once, then reads the answers
+	 */
+	private static void runClient(InetSocketAddress address, int client) throws IOException {
+		try (var channel = SocketChannel.open(address)) {
+			var codec = QuickSerializer.codecOf(channel, 1024);
+			for (int i = 0; i < APPLES; i++) {
+				codec.send(new Apple("Client " + client, i));
+			}
+			codec.flush(); // A blocking channel takes everything
+
+			for (int i = 0; i < APPLES; i++) {
+				while (!codec.hasObject()) {
+					if (codec.receive() < 0) {
+						throw new IOException("Server closed the connection");
+					}
+				}
+				var apple = codec.readObject(Apple.class);
+				if (apple.weight() != i || !apple.color().equals("Client " + client)) {
+					throw new IllegalStateException("Wrong answer: " + apple);
+				}
+			}
+		}
+	}
+
+	/**
+		The selector loop of the server, one codec per connection
+	 */
+	private static void serve(ServerSocketChannel server, AtomicInteger echoed) {
+		try (var selector = Selector.open()) {
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+			while (true) {
+				selector.select();
+				for (var key : selector.selectedKeys()) {
+					if (key.isAcceptable()) {
+						var channel = server.accept();
+						if (channel != null) {
+							channel.configureBlocking(false);
+							var codec = QuickSerializer.codecOf(channel, 1024).maxObjectLength(64 * 1024);
+							channel.register(selector, SelectionKey.OP_READ, codec);
+						}
+						continue;
+					}
+					var codec = (SerializationChannelCodec) key.attachment();
+					try {
+						if (key.isReadable()) {
+							if (codec.receive() < 0) {
+								key.channel().close();
+								continue;
+							}
+							while (codec.hasObject()) {
+								codec.send(codec.readObject(Apple.class));
+								echoed.incrementAndGet();
+							}
+						}
+						var flushed = codec.flush();
+						key.interestOps(flushed ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					} catch (IOException | QuickSerializerException e) {
+						key.channel().close(); // A broken or malicious peer
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static {
+		QuickSerializer.registerRecord((short) 0xA40, Apple.class);
+	}
+
+	record Apple(String color, int weight) {
+	}
+}
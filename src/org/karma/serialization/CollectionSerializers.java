@@ -0,0 +1,320 @@
+package org.karma.serialization;
+
+import org.karma.serialization.QuickSerializer.RuntimeSerializer;
+import org.karma.serialization.collections.DoubleList;
+import org.karma.serialization.collections.IntList;
+import org.karma.serialization.collections.LongList;
+import org.karma.serialization.serializers.BoxedSerializers;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static org.karma.serialization.QuickSerializer.getSerializer;
+
+/**
+ *  Serializers of List, Set, Map and arrays of objects, they have the reserved signatures 0x12-0x15.
+ *  Every implementation of an interface is written by its serializer: a List is read as an ArrayList,
+ *  a Set as a LinkedHashSet and a Map as a LinkedHashMap, so the order is kept.
+ *
+ *  Elements are written as a section: the flags, the signature of the elements if they are all of one type,
+ *  then the elements. Elements of one type are written as the data of their serializer, without the object header,
+ *  so their serializer must read exactly the bytes it writes. Other elements, and all elements if references are tracked,
+ *  are written with writeObject().
+ *  A list of non-null Integer, Long or Double is read into IntList, LongList or DoubleList, the numbers aren't boxed.
+ */
+@SuppressWarnings(value = "unchecked")
+final class CollectionSerializers {
+	private static final byte SAME_TYPE = 1; // The elements are of one type, its signature is written once
+	private static final byte HAS_NULLS = 2; // Every element has a presence flag
+	private static final byte HEADERS = 4; // The elements are written with writeObject(), they have headers
+	private static final int MAX_EMPTY_ELEMENTS = 1 << 20; // Most elements a section may have beyond its remaining bytes
+
+	private CollectionSerializers() {
+	}
+
+	/**
+		Returns the interface that has a serializer for the implementation: List, Set, Map or Object[]
+	 */
+	static Class<?> containerOf(Class<?> objectClass) {
+		if (objectClass.isArray()) {
+			return objectClass.getComponentType().isPrimitive() ? null : Object[].class;
+		}
+		if (List.class.isAssignableFrom(objectClass)) {
+			return List.class;
+		}
+		if (Set.class.isAssignableFrom(objectClass)) {
+			return Set.class;
+		}
+		if (Map.class.isAssignableFrom(objectClass)) {
+			return Map.class;
+		}
+		return null;
+	}
+
+	/**
+		Writes the section of elements. With a type, the elements are of one type only if they all have its serializer
+	 */
+	private static void writeElements(SerializationOutput data, Collection<?> elements, Class<?> elementType) {
+		RuntimeSerializer<Object> serializer = null;
+		var sameType = true;
+		var hasNulls = false;
+		if (elementType != null) {
+			serializer = (RuntimeSerializer<Object>) getSerializer(elementType);
+			sameType = serializer != null;
+		}
+		Class<?> lastClass = null;
+		for (var element : elements) {
+			if (element == null) {
+				hasNulls = true;
+			} else if (sameType && element.getClass() != lastClass) {
+				lastClass = element.getClass();
+				var elementSerializer = (RuntimeSerializer<Object>) getSerializer(lastClass);
+				if (serializer == null) {
+					serializer = elementSerializer;
+				}
+				sameType = elementSerializer != null && elementSerializer == serializer;
+			}
+		}
+		sameType &= serializer != null;
+		var headers = !sameType || data.isTrackingReferences(); // An element with a header can be a back-reference
+		data.writeByte((byte) ((sameType ? SAME_TYPE : 0) | (hasNulls ? HAS_NULLS : 0) | (headers ? HEADERS : 0)));
+		if (sameType) {
+			data.writeSignature(serializer.signature());
+		}
+		for (var element : elements) {
+			if (hasNulls) {
+				data.writeBoolean(element != null);
+				if (element == null) {
+					continue;
+				}
+			}
+			if (headers) {
+				data.writeObject(element);
+			} else {
+				serializer.serializerInstance().serialize(data, element);
+			}
+		}
+	}
+
+	/**
+		Returns the serializer of the elements if they are of one type, or null
+	 */
+	private static RuntimeSerializer<Object> readSerializer(SerializationInput data, byte flags) {
+		if ((flags & SAME_TYPE) == 0) {
+			return null;
+		}
+		var signature = data.readSignature();
+		RuntimeSerializer<Object> serializer = getSerializer(signature);
+		if (serializer == null) {
+			throw new SerializerObjectUnknownException(String.format("Unknown serializer of elements: 0x%s", Integer.toHexString(signature & 0xffff)));
+		}
+		return serializer;
+	}
+
+	/**
+		Reads the elements of the section after its flags and signature
+	 */
+	private static void readElements(SerializationInput data, int count, byte flags, RuntimeSerializer<Object> serializer, Consumer<Object> elements)
+			throws InvocationTargetException, InstantiationException, IllegalAccessException {
+		for (int i = 0; i < count; i++) {
+			if ((flags & HAS_NULLS) != 0 && !data.readBoolean()) {
+				elements.accept(null);
+			} else if ((flags & HEADERS) != 0) {
+				elements.accept(data.readObject());
+			} else {
+				elements.accept(serializer.serializerInstance().deserialize(data));
+			}
+		}
+	}
+
+	private static int readCount(SerializationInput data) {
+		var count = data.readInt();
+		if (count < 0) {
+			throw new SerializerObjectLoadException(String.format("Malformed collection of %s elements", count));
+		}
+		return count;
+	}
+
+	/**
+		Reads the flags of the section. An element with a presence flag or a header takes at least 1 byte, so a larger count is malformed.
+		Elements without headers may take no bytes at all, the serializer of an empty class writes nothing,
+		but no more than MAX_EMPTY_ELEMENTS of them are read, so a few bytes can't make the reader loop for billions of elements
+	 */
+	private static byte readFlags(SerializationInput data, int count) {
+		var flags = data.readByte();
+		if (count > data.available() && ((flags & (HAS_NULLS | HEADERS)) != 0 || count - data.available() > MAX_EMPTY_ELEMENTS)) {
+			throw new SerializerObjectLoadException(String.format("Malformed collection of %s elements", count));
+		}
+		return flags;
+	}
+
+	/**
+		Returns the capacity to allocate for the elements. The count isn't bounded by the data for elements without headers,
+		so at most one element per remaining byte is allocated ahead and the collection grows after that
+	 */
+	private static int capacity(SerializationInput data, int count) {
+		return Math.min(count, Math.max(data.available(), 0));
+	}
+
+	@SerializerObject(signature = 0x12, bytes = Integer.MAX_VALUE)
+	static final class ListSerializer implements Serializer<List<?>> {
+
+		@Override
+		public void serialize(SerializationOutput data, List<?> list) {
+			data.writeInt(list.size());
+			if (list instanceof IntList ints && writeNumbers(data, Integer.class, BoxedSerializers.IntegerSerializer.class)) {
+				for (int i = 0; i < ints.size(); i++) {
+					data.writeInt(ints.getInt(i));
+				}
+			} else if (list instanceof LongList longs && writeNumbers(data, Long.class, BoxedSerializers.LongSerializer.class)) {
+				for (int i = 0; i < longs.size(); i++) {
+					data.writeLong(longs.getLong(i));
+				}
+			} else if (list instanceof DoubleList doubles && writeNumbers(data, Double.class, BoxedSerializers.DoubleSerializer.class)) {
+				for (int i = 0; i < doubles.size(); i++) {
+					data.writeDouble(doubles.getDouble(i));
+				}
+			} else {
+				writeElements(data, list, null);
+			}
+		}
+
+		/**
+			Writes the header of a section of numbers, the same as writeElements() writes for boxed numbers.
+			Returns false if the numbers must be written as elements: references are tracked or the boxed type has another serializer
+		 */
+		private static boolean writeNumbers(SerializationOutput data, Class<?> boxedClass, Class<?> serializerClass) {
+			var serializer = getSerializer(boxedClass);
+			if (data.isTrackingReferences() || serializer == null || serializer.serializerInstance().getClass() != serializerClass) {
+				return false;
+			}
+			data.writeByte(SAME_TYPE);
+			data.writeSignature(serializer.signature());
+			return true;
+		}
+
+		@Override
+		public List<?> deserialize(SerializationInput data) throws InvocationTargetException, InstantiationException, IllegalAccessException {
+			var count = readCount(data);
+			var flags = readFlags(data, count);
+			var serializer = readSerializer(data, flags);
+			if (serializer != null && (flags & (HAS_NULLS | HEADERS)) == 0) {
+				var elementSerializer = serializer.serializerInstance().getClass();
+				if (elementSerializer == BoxedSerializers.IntegerSerializer.class) {
+					var ints = new IntList(capacity(data, count));
+					for (int i = 0; i < count; i++) {
+						ints.addInt(data.readInt());
+					}
+					return ints;
+				}
+				if (elementSerializer == BoxedSerializers.LongSerializer.class) {
+					var longs = new LongList(capacity(data, count));
+					for (int i = 0; i < count; i++) {
+						longs.addLong(data.readLong());
+					}
+					return longs;
+				}
+				if (elementSerializer == BoxedSerializers.DoubleSerializer.class) {
+					var doubles = new DoubleList(capacity(data, count));
+					for (int i = 0; i < count; i++) {
+						doubles.addDouble(data.readDouble());
+					}
+					return doubles;
+				}
+			}
+			var list = new ArrayList<>(capacity(data, count));
+			readElements(data, count, flags, serializer, list::add);
+			return list;
+		}
+	}
+
+	@SerializerObject(signature = 0x13, bytes = Integer.MAX_VALUE)
+	static final class SetSerializer implements Serializer<Set<?>> {
+
+		@Override
+		public void serialize(SerializationOutput data, Set<?> set) {
+			data.writeInt(set.size());
+			writeElements(data, set, null);
+		}
+
+		@Override
+		public Set<?> deserialize(SerializationInput data) throws InvocationTargetException, InstantiationException, IllegalAccessException {
+			var count = readCount(data);
+			var flags = readFlags(data, count);
+			var set = new LinkedHashSet<>(capacity(data, count) * 4 / 3 + 1);
+			readElements(data, count, flags, readSerializer(data, flags), set::add);
+			return set;
+		}
+	}
+
+	/**
+		Keys and values are two sections, so keys of one type and values of one type are written without headers
+	 */
+	@SerializerObject(signature = 0x14, bytes = Integer.MAX_VALUE)
+	static final class MapSerializer implements Serializer<Map<?, ?>> {
+
+		@Override
+		public void serialize(SerializationOutput data, Map<?, ?> map) {
+			data.writeInt(map.size());
+			writeElements(data, map.keySet(), null);
+			writeElements(data, map.values(), null);
+		}
+
+		@Override
+		public Map<?, ?> deserialize(SerializationInput data) throws InvocationTargetException, InstantiationException, IllegalAccessException {
+			var count = readCount(data);
+			var keyFlags = readFlags(data, count);
+			var keys = new ArrayList<>(capacity(data, count));
+			readElements(data, count, keyFlags, readSerializer(data, keyFlags), keys::add);
+			var map = new LinkedHashMap<>(capacity(data, count) * 4 / 3 + 1);
+			var valueFlags = readFlags(data, count);
+			readElements(data, count, valueFlags, readSerializer(data, valueFlags), new Consumer<>() {
+				private int index;
+
+				@Override
+				public void accept(Object value) {
+					map.put(keys.get(index++), value);
+				}
+			});
+			return map;
+		}
+	}
+
+	/**
+		An array of a registered type is read as an array of that type, other arrays are read as Object[]
+	 */
+	@SerializerObject(signature = 0x15, bytes = Integer.MAX_VALUE)
+	static final class ArraySerializer implements Serializer<Object[]> {
+
+		@Override
+		public void serialize(SerializationOutput data, Object[] array) {
+			data.writeInt(array.length);
+			writeElements(data, Arrays.asList(array), array.getClass().getComponentType());
+		}
+
+		@Override
+		public Object[] deserialize(SerializationInput data) throws InvocationTargetException, InstantiationException, IllegalAccessException {
+			var count = readCount(data);
+			var flags = readFlags(data, count);
+			var serializer = readSerializer(data, flags);
+			var elementClass = serializer == null ? Object.class : serializer.objectClass();
+			if (count > data.available()) { // Elements that take no bytes, the count isn't bounded by the data
+				var elements = new ArrayList<>(capacity(data, count));
+				readElements(data, count, flags, serializer, elements::add);
+				return elements.toArray((Object[]) Array.newInstance(elementClass, 0));
+			}
+			var array = (Object[]) Array.newInstance(elementClass, count);
+			readElements(data, count, flags, serializer, new Consumer<>() {
+				private int index;
+
+				@Override
+				public void accept(Object element) {
+					array[index++] = element;
+				}
+			});
+			return array;
+		}
+	}
+}
@@ -1,7 +1,12 @@
 package org.karma.serialization;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 /**
- *  Thread-Safe Serialization Input Reader
+ *  Thread-Safe Serialization Input Reader.
+ *  Threads that read on their own should take a cursor with newCursor(): cursors share the data, but not the position,
+ *  and don't lock. The synchronized methods of this class share one position, so a thread's object can be split by another thread
  */
 public class ConcurrentSerializationInput extends SerializationInput {
 
@@ -9,6 +14,116 @@ public class ConcurrentSerializationInput extends SerializationInput {
 		super(bytes);
 	}
 
+	/**
+		Returns a new cursor over the data from the start. It has the settings of this input and its own position.
+		A cursor is used by one thread, any number of cursors read the same data at the same time.
+		The data must not be changed (reset()) while there are cursors
+	 */
+	public SerializationInput newCursor() {
+		return cursor();
+	}
+
+	/**
+		Point the input at the new data, so it can be reused without creating a new one
+	 */
+	@Override
+	public synchronized void reset(byte[] bytes) {
+		super.reset(bytes);
+	}
+
+	/**
+		Point the input at the data in ByteBuffer
+	 */
+	@Override
+	public synchronized void reset(ByteBuffer bytes) {
+		super.reset(bytes);
+	}
+
+	/**
+		Set the byte order of numbers
+	 */
+	@Override
+	public synchronized ConcurrentSerializationInput order(ByteOrder order) {
+		super.order(order);
+		return this;
+	}
+
+	/**
+		Set the encoding of numbers and object headers
+	 */
+	@Override
+	public synchronized ConcurrentSerializationInput format(SerializationFormat format) {
+		super.format(format);
+		return this;
+	}
+
+	/**
+		Turn reference tracking on or off
+	 */
+	@Override
+	public synchronized ConcurrentSerializationInput trackReferences(boolean track) {
+		super.trackReferences(track);
+		return this;
+	}
+
+	/**
+		Returns the offset of the next byte from the start of data
+	 */
+	@Override
+	public synchronized int position() {
+		return super.position();
+	}
+
+	/**
+		Moves to the offset from the start of data
+	 */
+	@Override
+	public synchronized ConcurrentSerializationInput position(int offset) {
+		super.position(offset);
+		return this;
+	}
+
+	/**
+		Returns the index written at the end of data, or null if there's no index
+	 */
+	@Override
+	public synchronized SerializationIndex readIndex() {
+		return super.readIndex();
+	}
+
+	/**
+		Builds the index of the data from the current position on
+	 */
+	@Override
+	public synchronized SerializationIndex buildIndex() {
+		return super.buildIndex();
+	}
+
+	/**
+		Moves to the object of the index
+	 */
+	@Override
+	public synchronized ConcurrentSerializationInput seekObject(SerializationIndex index, int object) {
+		super.seekObject(index, object);
+		return this;
+	}
+
+	/**
+		Skip the object and return a handle that loads it on the first get()
+	 */
+	@Override
+	public synchronized <T> SerializationLazy<T> readLazy(Class<T> objectClass) {
+		return super.readLazy(objectClass);
+	}
+
+	/**
+		Loads the object of a handle from readLazy(), the references are shared with the other readers
+	 */
+	@Override
+	synchronized <T> T loadLazy(QuickSerializer.RuntimeSerializer<T> serializer, int headerPosition, int dataStart, int dataEnd) {
+		return super.loadLazy(serializer, headerPosition, dataStart, dataEnd);
+	}
+
 	/**
 	    Returns the available buffer space
 	 */
@@ -161,6 +276,54 @@ public class ConcurrentSerializationInput extends SerializationInput {
 		super.skipDouble();
 	}
 
+	/**
+	    Read length bytes into the array
+	 */
+	@Override
+	public synchronized void readBytes(byte[] bytes, int offset, int length) {
+		super.readBytes(bytes, offset, length);
+	}
+
+	/**
+	    Read length * 2 bytes into the array
+	 */
+	@Override
+	public synchronized void readShorts(short[] numbers, int offset, int length) {
+		super.readShorts(numbers, offset, length);
+	}
+
+	/**
+	    Read length * 4 bytes into the array
+	 */
+	@Override
+	public synchronized void readInts(int[] numbers, int offset, int length) {
+		super.readInts(numbers, offset, length);
+	}
+
+	/**
+	    Read length * 8 bytes into the array
+	 */
+	@Override
+	public synchronized void readLongs(long[] numbers, int offset, int length) {
+		super.readLongs(numbers, offset, length);
+	}
+
+	/**
+	    Read length * 4 bytes into the array
+	 */
+	@Override
+	public synchronized void readFloats(float[] numbers, int offset, int length) {
+		super.readFloats(numbers, offset, length);
+	}
+
+	/**
+	    Read length * 8 bytes into the array
+	 */
+	@Override
+	public synchronized void readDoubles(double[] numbers, int offset, int length) {
+		super.readDoubles(numbers, offset, length);
+	}
+
 	/**
 	    Requires at least 6 bytes
 
@@ -182,8 +345,7 @@ public class ConcurrentSerializationInput extends SerializationInput {
 	}
 
 	/**
-	    Requires at least 6 bytes. Returns a string if there's a serialized string object
-	    Or throws an exception
+	    Requires 4 bytes (1-5 bytes in COMPACT format) for the length and the UTF-8 bytes of string
 	 */
 	@Override
 	public synchronized String readString() {
@@ -191,7 +353,7 @@ public class ConcurrentSerializationInput extends SerializationInput {
 	}
 
 	/**
-	    Skip 6 bytes
+	    Skip 4 bytes (1-5 bytes in COMPACT format) and the string bytes
 	 */
 	@Override
 	public synchronized void skipString() {
@@ -1,11 +1,225 @@
 package org.karma.serialization;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import static org.karma.serialization.QuickSerializer.getSerializer;
+
+/**
+ *  Thread-Safe Serialization Output Writer.
+ *  Every write is a whole unit in space claimed with one CAS, so the values of different threads never interleave and writers don't lock.
+ *  Numbers, arrays and strings are put right into the claimed space. An object is written in a scratch output of the calling thread
+ *  first, because its size is known only after the serializer returns, and then copied.
+ *  Read the data (getBytes(), writeTo()) and reset() only when no thread is writing.
+ *  References can't be tracked, every write has its own scratch output.
+ */
 public class ConcurrentSerializationOutput extends SerializationOutput {
+	private static final VarHandle RESERVED;
+	private static final VarHandle COMMITTED;
+	private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	static {
+		try {
+			var lookup = MethodHandles.lookup();
+			RESERVED = lookup.findVarHandle(ConcurrentSerializationOutput.class, "reserved", int.class);
+			COMMITTED = lookup.findVarHandle(ConcurrentSerializationOutput.class, "committed", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final byte[] buffer;
+	private volatile int reserved = 0; // End of the claimed space
+	private volatile int committed = 0; // Bytes that are copied into the claimed space
+	private boolean littleEndian;
+	private boolean compact;
+
 	/**
 	 * @param bufferSize - max size of buffer. (in bytes)
 	 */
 	public ConcurrentSerializationOutput(int bufferSize) {
-		super(bufferSize);
+		super(0); // The writes go to scratch outputs and then to the shared buffer, the own buffer of SerializationOutput isn't used
+		this.buffer = new byte[bufferSize];
+	}
+
+	/**
+	 * Runs the write on a scratch output and copies the result into the shared buffer.
+	 * A failed object is written as null, the same way as SerializationOutput does it
+	 */
+	private void write(Consumer<SerializationOutput> writer) {
+		var scratch = QuickSerializer.acquireOutput();
+		scratch.order(order()).format(format());
+		try {
+			try {
+				writer.accept(scratch);
+			} catch (RuntimeException | Error e) {
+				try {
+					copy(scratch); // It has the null instance or nothing
+				} catch (RuntimeException copyFailure) {
+					e.addSuppressed(copyFailure);
+				}
+				throw e;
+			}
+			copy(scratch);
+		} finally {
+			QuickSerializer.releaseOutput(scratch);
+		}
+	}
+
+	private void copy(SerializationOutput scratch) {
+		var bytes = scratch.size();
+		var start = reserve(bytes);
+		scratch.copyTo(buffer, start);
+		commit(bytes);
+	}
+
+	private void commit(long bytes) {
+		COMMITTED.getAndAdd(this, (int) bytes);
+	}
+
+	/**
+	 * Claims the space. A single CAS if other threads don't claim at the same time
+	 */
+	private int reserve(long bytes) {
+		while (true) {
+			var start = reserved;
+			var end = start + bytes;
+			if (end > buffer.length - 1) { // The last byte is the end of data mark
+				throw new SerializerEndOfBufferException(String.format("Reached the end of buffer. Buffer size: %s, asked: %s", buffer.length, end + 1));
+			}
+			if (RESERVED.compareAndSet(this, start, (int) end)) {
+				return start;
+			}
+		}
+	}
+
+	/**
+	 * Waits for the copies into the claimed space. Returns the end of data
+	 */
+	private int awaitCommitted() {
+		var end = reserved;
+		while (committed != end) {
+			Thread.onSpinWait();
+			end = reserved;
+		}
+		return end;
+	}
+
+	/**
+	 * Set the byte order of numbers
+	 *
+	 * @param order
+	 */
+	@Override
+	public ConcurrentSerializationOutput order(ByteOrder order) {
+		super.order(order);
+		this.littleEndian = order == ByteOrder.LITTLE_ENDIAN;
+		return this;
+	}
+
+	/**
+	 * Set the encoding of numbers and object headers
+	 *
+	 * @param format
+	 */
+	@Override
+	public ConcurrentSerializationOutput format(SerializationFormat format) {
+		super.format(format);
+		this.compact = format == SerializationFormat.COMPACT;
+		return this;
+	}
+
+	/**
+	 * Turn reference tracking on or off
+	 *
+	 * @param track
+	 */
+	@Override
+	public ConcurrentSerializationOutput trackReferences(boolean track) {
+		if (track) {
+			throw new UnsupportedOperationException("References can't be tracked by a concurrent output");
+		}
+		return this;
+	}
+
+	/**
+	 * Turn the index of top-level objects on or off
+	 *
+	 * @param index
+	 */
+	@Override
+	public ConcurrentSerializationOutput indexObjects(boolean index) {
+		if (index) {
+			throw new UnsupportedOperationException("Top-level objects can't be indexed by a concurrent output");
+		}
+		return this;
+	}
+
+	/**
+	 * Puts a number at the index in the output byte order. Each one is a single store
+	 */
+	private void putShort(int index, short number) {
+		if (littleEndian) {
+			SHORT_LE.set(buffer, index, number);
+		} else {
+			SHORT.set(buffer, index, number);
+		}
+	}
+
+	private void putInt(int index, int number) {
+		if (littleEndian) {
+			INT_LE.set(buffer, index, number);
+		} else {
+			INT.set(buffer, index, number);
+		}
+	}
+
+	private void putLong(int index, long number) {
+		if (littleEndian) {
+			LONG_LE.set(buffer, index, number);
+		} else {
+			LONG.set(buffer, index, number);
+		}
+	}
+
+	/**
+	 * Puts an unsigned LEB128 number that takes exactly size bytes, returns the index after it
+	 */
+	private int putVarNumber(int index, long number, int size) {
+		for (int i = 1; i < size; i++, number >>>= 7) {
+			buffer[index++] = (byte) (number | 0x80);
+		}
+		buffer[index++] = (byte) (number & 0x7f);
+		return index;
+	}
+
+	private void writeVarNumber(long number) {
+		var size = varNumberSize(number);
+		putVarNumber(reserve(size), number, size);
+		commit(size);
+	}
+
+	private void writeFixedInt(int number) {
+		putInt(reserve(Integer.BYTES), number);
+		commit(Integer.BYTES);
+	}
+
+	private void writeFixedLong(long number) {
+		putLong(reserve(Long.BYTES), number);
+		commit(Long.BYTES);
 	}
 
 	/**
@@ -14,8 +228,9 @@ public class ConcurrentSerializationOutput extends SerializationOutput {
 	 * @param number
 	 */
 	@Override
-	public synchronized void writeByte(byte number) {
-		super.writeByte(number);
+	public void writeByte(byte number) {
+		buffer[reserve(1)] = number;
+		commit(1);
 	}
 
 	/**
@@ -24,8 +239,9 @@ public class ConcurrentSerializationOutput extends SerializationOutput {
 	 * @param number
 	 */
 	@Override
-	public synchronized void writeShort(short number) {
-		super.writeShort(number);
+	public void writeShort(short number) {
+		putShort(reserve(Short.BYTES), number);
+		commit(Short.BYTES);
 	}
 
 	/**
@@ -34,8 +250,12 @@ public class ConcurrentSerializationOutput extends SerializationOutput {
 	 * @param number
 	 */
 	@Override
-	public synchronized void writeInt(int number) {
-		super.writeInt(number);
+	public void writeInt(int number) {
+		if (compact) {
+			writeVarNumber(zigzag(number));
+		} else {
+			writeFixedInt(number);
+		}
 	}
 
 	/**
@@ -44,8 +264,12 @@ public class ConcurrentSerializationOutput extends SerializationOutput {
 	 * @param number
 	 */
 	@Override
-	public synchronized void writeLong(long number) {
-		super.writeLong(number);
+	public void writeLong(long number) {
+		if (compact) {
+			writeVarNumber(zigzag(number));
+		} else {
+			writeFixedLong(number);
+		}
 	}
 
 	/**
@@ -54,8 +278,12 @@ public class ConcurrentSerializationOutput extends SerializationOutput {
 	 * @param character
 	 */
 	@Override
-	public synchronized void writeChar(char character) {
-		super.writeChar(character);
+	public void writeChar(char character) {
+		if (compact) {
+			writeShort((short) character);
+		} else {
+			writeFixedInt(character);
+		}
 	}
 
 	/**
@@ -64,8 +292,8 @@ public class ConcurrentSerializationOutput extends SerializationOutput {
 	 * @param bool
 	 */
 	@Override
-	public synchronized void writeBoolean(boolean bool) {
-		super.writeBoolean(bool);
+	public void writeBoolean(boolean bool) {
+		writeByte((byte) (bool ? 1 : 0));
 	}
 
 	/**
@@ -74,8 +302,8 @@ public class ConcurrentSerializationOutput extends SerializationOutput {
 	 * @param number
 	 */
 	@Override
-	public synchronized void writeFloat(float number) {
-		super.writeFloat(number);
+	public void writeFloat(float number) {
+		writeFixedInt(Float.floatToIntBits(number));
 	}
 
 	/**
@@ -84,18 +312,132 @@ public class ConcurrentSerializationOutput extends SerializationOutput {
 	 * @param number
 	 */
 	@Override
-	public synchronized void writeDouble(double number) {
-		super.writeDouble(number);
+	public void writeDouble(double number) {
+		writeFixedLong(Double.doubleToLongBits(number));
+	}
+
+	/**
+	 * Requires length bytes
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 */
+	@Override
+	public void writeBytes(byte[] bytes, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, bytes.length);
+		System.arraycopy(bytes, offset, buffer, reserve(length), length);
+		commit(length);
+	}
+
+	/**
+	 * Requires length * 2 bytes
+	 *
+	 * @param numbers
+	 * @param offset
+	 * @param length
+	 */
+	@Override
+	public void writeShorts(short[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		var index = reserve((long) length * Short.BYTES);
+		for (int i = 0; i < length; i++, index += Short.BYTES) {
+			putShort(index, numbers[offset + i]);
+		}
+		commit((long) length * Short.BYTES);
+	}
+
+	/**
+	 * Requires length * 4 bytes
+	 *
+	 * @param numbers
+	 * @param offset
+	 * @param length
+	 */
+	@Override
+	public void writeInts(int[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		var index = reserve((long) length * Integer.BYTES);
+		for (int i = 0; i < length; i++, index += Integer.BYTES) {
+			putInt(index, numbers[offset + i]);
+		}
+		commit((long) length * Integer.BYTES);
+	}
+
+	/**
+	 * Requires length * 8 bytes
+	 *
+	 * @param numbers
+	 * @param offset
+	 * @param length
+	 */
+	@Override
+	public void writeLongs(long[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		var index = reserve((long) length * Long.BYTES);
+		for (int i = 0; i < length; i++, index += Long.BYTES) {
+			putLong(index, numbers[offset + i]);
+		}
+		commit((long) length * Long.BYTES);
+	}
+
+	/**
+	 * Requires length * 4 bytes
+	 *
+	 * @param numbers
+	 * @param offset
+	 * @param length
+	 */
+	@Override
+	public void writeFloats(float[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		var index = reserve((long) length * Float.BYTES);
+		for (int i = 0; i < length; i++, index += Float.BYTES) {
+			putInt(index, Float.floatToIntBits(numbers[offset + i]));
+		}
+		commit((long) length * Float.BYTES);
 	}
 
 	/**
-	 * Requires at least 10 bytes
+	 * Requires length * 8 bytes
+	 *
+	 * @param numbers
+	 * @param offset
+	 * @param length
+	 */
+	@Override
+	public void writeDoubles(double[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		var index = reserve((long) length * Double.BYTES);
+		for (int i = 0; i < length; i++, index += Double.BYTES) {
+			putLong(index, Double.doubleToLongBits(numbers[offset + i]));
+		}
+		commit((long) length * Double.BYTES);
+	}
+
+	/**
+	 * Requires 4 bytes (1-5 bytes in COMPACT format) for the length and the UTF-8 bytes of string.
+	 * A null string is written as -1 length
 	 *
 	 * @param string
 	 */
 	@Override
-	public synchronized void writeString(String string) {
-		super.writeString(string);
+	public void writeString(String string) {
+		if (string == null) {
+			writeInt(-1);
+			return;
+		}
+		var stringBytes = string.getBytes(StandardCharsets.UTF_8);
+		var lengthSize = compact ? varNumberSize(zigzag(stringBytes.length)) : Integer.BYTES;
+		var index = reserve((long) lengthSize + stringBytes.length);
+		if (compact) {
+			index = putVarNumber(index, zigzag(stringBytes.length), lengthSize);
+		} else {
+			putInt(index, stringBytes.length);
+			index += Integer.BYTES;
+		}
+		System.arraycopy(stringBytes, 0, buffer, index, stringBytes.length);
+		commit(lengthSize + stringBytes.length);
 	}
 
 	/**
@@ -106,8 +448,19 @@ public class ConcurrentSerializationOutput extends SerializationOutput {
 	 * @param objectClass
 	 */
 	@Override
-	public synchronized <T> void writeNull(Class<T> objectClass) {
-		super.writeNull(objectClass);
+	public <T> void writeNull(Class<T> objectClass) {
+		var signature = getSerializer(objectClass).signature();
+		if (compact) {
+			var signatureSize = varNumberSize(signature & 0xffff);
+			var index = putVarNumber(reserve(signatureSize + 1), signature & 0xffff, signatureSize);
+			buffer[index] = 1; // Size -1 means a null instance
+			commit(signatureSize + 1);
+		} else {
+			var index = reserve(Short.BYTES + Integer.BYTES);
+			putShort(index, signature);
+			putInt(index + Short.BYTES, -1);
+			commit(Short.BYTES + Integer.BYTES);
+		}
 	}
 
 	/**
@@ -116,15 +469,68 @@ public class ConcurrentSerializationOutput extends SerializationOutput {
 	 * @param object
 	 */
 	@Override
-	public synchronized <T> void writeObject(T object) {
-		super.writeObject(object);
+	public <T> void writeObject(T object) {
+		write(scratch -> scratch.writeObject(object));
+	}
+
+	/**
+	 * Write an object from SerializationInput.readLazy()
+	 *
+	 * @param lazy
+	 */
+	@Override
+	public <T> void writeLazy(SerializationLazy<T> lazy) {
+		write(scratch -> scratch.writeLazy(lazy));
+	}
+
+	/**
+	 * Reset buffer position, so the output can be used for the next message
+	 */
+	@Override
+	public void reset() {
+		reserved = 0;
+		committed = 0;
 	}
 
 	/**
 	 * Get the used space
 	 */
 	@Override
-	public synchronized byte[] getBytes() {
-		return super.getBytes();
+	public byte[] getBytes() {
+		var filled = new byte[awaitCommitted() + 1];
+		System.arraycopy(buffer, 0, filled, 0, filled.length - 1);
+		return filled;
+	}
+
+	/**
+	 * Returns how many bytes are claimed
+	 */
+	@Override
+	public int size() {
+		return reserved;
+	}
+
+	/**
+	 * Write the used space to the channel
+	 */
+	@Override
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		var used = ByteBuffer.wrap(buffer, 0, awaitCommitted());
+		var endMark = ByteBuffer.allocate(1);
+		while (used.hasRemaining()) {
+			channel.write(used);
+		}
+		while (endMark.hasRemaining()) {
+			channel.write(endMark);
+		}
+	}
+
+	/**
+	 * Write the used space to the stream
+	 */
+	@Override
+	public void writeTo(OutputStream stream) throws IOException {
+		stream.write(buffer, 0, awaitCommitted());
+		stream.write(0); // End of data mark
 	}
 }
@@ -0,0 +1,49 @@
+package org.karma.serialization;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ *  Raw deflate of blocks. The Deflater and the Inflater are reset for every block instead of being created again
+ */
+final class DeflateCompression implements SerializationCompression {
+	private final Deflater deflater;
+	private final Inflater inflater = new Inflater(true);
+
+	DeflateCompression(int level) {
+		this.deflater = new Deflater(level, true);
+	}
+
+	@Override
+	public int compress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int targetLength) {
+		deflater.reset();
+		deflater.setInput(source, sourceOffset, length);
+		deflater.finish();
+		var compressed = 0;
+		while (!deflater.finished()) {
+			if (compressed == targetLength) {
+				return -1; // It's larger than the target
+			}
+			compressed += deflater.deflate(target, targetOffset + compressed, targetLength - compressed);
+		}
+		return compressed;
+	}
+
+	@Override
+	public void decompress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int rawLength) throws DataFormatException {
+		inflater.reset();
+		inflater.setInput(source, sourceOffset, length);
+		var decompressed = 0;
+		while (decompressed < rawLength) {
+			var inflated = inflater.inflate(target, targetOffset + decompressed, rawLength - decompressed);
+			if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+				throw new DataFormatException(String.format("Block ends after %s of %s bytes", decompressed, rawLength));
+			}
+			decompressed += inflated;
+		}
+		if (!inflater.finished() && inflater.getRemaining() > 0) {
+			throw new DataFormatException(String.format("Block is longer than %s bytes", rawLength));
+		}
+	}
+}
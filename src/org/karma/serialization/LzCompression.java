@@ -0,0 +1,167 @@
+package org.karma.serialization;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ *  LZ77 with a hash table of 4-byte sequences, the format is close to an LZ4 block.
+ *  A sequence is a token (4 bits of literal length, 4 bits of match length - 4), extra length bytes,
+ *  the literals, a 2-byte offset of the match and extra match length bytes. The last sequence has only literals.
+ *  The last 5 bytes are always literals, so the decoder never reads past the block
+ */
+final class LzCompression implements SerializationCompression {
+	private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final int HASH_BITS = 14;
+	private static final int MIN_MATCH = 4;
+	private static final int LAST_LITERALS = 5;
+	private static final int MIN_LENGTH = 12; // Shorter blocks are written as literals
+	private static final int MAX_OFFSET = 0xffff;
+
+	private final int[] table = new int[1 << HASH_BITS]; // Last position of a hashed sequence
+
+	@Override
+	public int compress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int targetLength) {
+		var end = sourceOffset + length;
+		var targetEnd = targetOffset + targetLength;
+		var anchor = sourceOffset; // Start of the literals that aren't written yet
+		var output = targetOffset;
+		if (length >= MIN_LENGTH) {
+			Arrays.fill(table, -1);
+			var matchLimit = end - LAST_LITERALS;
+			var inputLimit = end - MIN_LENGTH;
+			var input = sourceOffset;
+			while (input < inputLimit) {
+				var sequence = (int) INT.get(source, input);
+				var hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+				var match = table[hash];
+				table[hash] = input;
+				if (match < 0 || input - match > MAX_OFFSET || (int) INT.get(source, match) != sequence) {
+					input += 1 + ((input - anchor) >>> 6); // Skip faster through data that doesn't compress
+					continue;
+				}
+				while (input > anchor && match > sourceOffset && source[input - 1] == source[match - 1]) {
+					input--;
+					match--;
+				}
+				var matchLength = MIN_MATCH;
+				while (input + matchLength < matchLimit && source[input + matchLength] == source[match + matchLength]) {
+					matchLength++;
+				}
+				output = writeSequence(source, anchor, input - anchor, input - match, matchLength, target, output, targetEnd);
+				if (output < 0) {
+					return -1;
+				}
+				input += matchLength;
+				anchor = input;
+			}
+		}
+		output = writeSequence(source, anchor, end - anchor, 0, 0, target, output, targetEnd);
+		return output < 0 ? -1 : output - targetOffset;
+	}
+
+	/**
+		Writes the literals and the match, a match length of 0 means the last sequence. Returns the new output position, or -1 if it doesn't fit
+	 */
+	private static int writeSequence(byte[] source, int literalsStart, int literals, int offset, int matchLength, byte[] target, int output, int targetEnd) {
+		var extraMatch = matchLength - MIN_MATCH;
+		if ((long) output + 1 + literals / 255 + 1 + literals + 2 + (matchLength == 0 ? 0 : extraMatch / 255 + 1) > targetEnd) {
+			return -1;
+		}
+		var token = output++;
+		target[token] = (byte) (Math.min(literals, 15) << 4 | (matchLength == 0 ? 0 : Math.min(extraMatch, 15)));
+		if (literals >= 15) {
+			output = writeLength(literals - 15, target, output);
+		}
+		System.arraycopy(source, literalsStart, target, output, literals);
+		output += literals;
+		if (matchLength == 0) {
+			return output;
+		}
+		target[output++] = (byte) offset;
+		target[output++] = (byte) (offset >>> 8);
+		if (extraMatch >= 15) {
+			output = writeLength(extraMatch - 15, target, output);
+		}
+		return output;
+	}
+
+	private static int writeLength(int length, byte[] target, int output) {
+		for (; length >= 255; length -= 255) {
+			target[output++] = (byte) 255;
+		}
+		target[output++] = (byte) length;
+		return output;
+	}
+
+	@Override
+	public void decompress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int rawLength) throws DataFormatException {
+		var input = sourceOffset;
+		var end = sourceOffset + length;
+		var output = targetOffset;
+		var targetEnd = targetOffset + rawLength;
+		while (true) {
+			if (input >= end) {
+				throw new DataFormatException("Block ends before its last sequence");
+			}
+			var token = source[input++] & 0xff;
+			var literals = token >>> 4;
+			if (literals == 15) {
+				int extra;
+				do {
+					if (input >= end) {
+						throw new DataFormatException("Block ends in a literal length");
+					}
+					extra = source[input++] & 0xff;
+					literals += extra;
+				} while (extra == 255);
+			}
+			if (literals > end - input || literals > targetEnd - output) {
+				throw new DataFormatException(String.format("Literals out of block: %s", literals));
+			}
+			System.arraycopy(source, input, target, output, literals);
+			input += literals;
+			output += literals;
+			if (input == end) {
+				break; // The last sequence has only literals
+			}
+			if (end - input < 2) {
+				throw new DataFormatException("Block ends in a match offset");
+			}
+			var offset = (source[input] & 0xff) | (source[input + 1] & 0xff) << 8;
+			input += 2;
+			if (offset == 0 || offset > output - targetOffset) {
+				throw new DataFormatException(String.format("Match offset out of block: %s", offset));
+			}
+			var matchLength = token & 15;
+			if (matchLength == 15) {
+				int extra;
+				do {
+					if (input >= end) {
+						throw new DataFormatException("Block ends in a match length");
+					}
+					extra = source[input++] & 0xff;
+					matchLength += extra;
+				} while (extra == 255);
+			}
+			matchLength += MIN_MATCH;
+			if (matchLength > targetEnd - output) {
+				throw new DataFormatException(String.format("Match out of block: %s", matchLength));
+			}
+			var match = output - offset;
+			if (offset >= matchLength) {
+				System.arraycopy(target, match, target, output, matchLength);
+			} else {
+				for (int i = 0; i < matchLength; i++) { // The match overlaps the output, it repeats the last bytes
+					target[output + i] = target[match + i];
+				}
+			}
+			output += matchLength;
+		}
+		if (output != targetEnd) {
+			throw new DataFormatException(String.format("Block decodes to %s bytes instead of %s", output - targetOffset, rawLength));
+		}
+	}
+}
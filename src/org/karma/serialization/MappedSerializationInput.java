@@ -0,0 +1,167 @@
+package org.karma.serialization;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.function.Function;
+
+/**
+ *  Reads top-level objects from a memory-mapped file.
+ *  Positions are long, so the file can be larger than 2 GB. The file is mapped in windows of at most 2 GB,
+ *  pages are loaded by the OS when they are touched: skipObject() reads only the object header.
+ *  Every object must be smaller than 2 GB, and back-references aren't supported.
+ */
+public class MappedSerializationInput implements AutoCloseable {
+	private final FileChannel channel;
+	private final long size; // Size of the file, including the end of data mark
+	private final int windowSize;
+	private final SerializationInput window; // Input over the mapped part of the file
+	private long windowStart;
+	private int windowLength;
+
+	MappedSerializationInput(FileChannel channel, int windowSize) throws IOException {
+		this.channel = channel;
+		this.size = channel.size();
+		this.windowSize = windowSize;
+		this.window = new SerializationInput(QuickSerializer.EMPTY);
+		map(0, windowSize);
+	}
+
+	/**
+		Maps the file from the position, the window is shorter at the end of file
+	 */
+	private void map(long position, int length) {
+		var mappedLength = (int) Math.min(length, size - position);
+		try {
+			window.reset(channel.map(FileChannel.MapMode.READ_ONLY, position, mappedLength));
+		} catch (IOException e) {
+			throw new SerializerObjectLoadException(String.format("Can't map the file at %s: %s", position, e.getMessage()));
+		}
+		windowStart = position;
+		windowLength = mappedLength;
+	}
+
+	/**
+		Runs the reader on the window. If the object crosses the end of the window, the window is moved to the object and the reader runs again.
+		The last byte of a window is never read (it's the end of data mark for SerializationInput)
+	 */
+	private <T> T read(Function<SerializationInput, T> reader) {
+		while (true) {
+			var objectPosition = position();
+			try {
+				return reader.apply(window);
+			} catch (SerializerEndOfBufferException e) {
+				if (windowStart + windowLength == size || windowStart == objectPosition && windowLength == Integer.MAX_VALUE) {
+					throw e; // The object is cut off by the end of file or it's too large
+				}
+				map(objectPosition, windowStart == objectPosition ? Integer.MAX_VALUE : windowSize); // Grow the window if the object is larger than it
+			}
+		}
+	}
+
+	/**
+		Set the byte order of numbers. It must be the same as the order used by SerializationOutput
+	 */
+	public MappedSerializationInput order(ByteOrder order) {
+		window.order(order);
+		return this;
+	}
+
+	/**
+		Returns the byte order of numbers
+	 */
+	public ByteOrder order() {
+		return window.order();
+	}
+
+	/**
+		Set the encoding of numbers and object headers. It must be the same as the format used by SerializationOutput
+	 */
+	public MappedSerializationInput format(SerializationFormat format) {
+		window.format(format);
+		return this;
+	}
+
+	/**
+		Returns the encoding of numbers and object headers
+	 */
+	public SerializationFormat format() {
+		return window.format();
+	}
+
+	/**
+		Returns the file position of the next object
+	 */
+	public long position() {
+		return windowStart + window.position();
+	}
+
+	/**
+		Moves to the file position. It must be the position of an object header, for example one returned by position()
+	 */
+	public MappedSerializationInput position(long position) {
+		if (position < 0 || position >= size) {
+			throw new SerializerEndOfBufferException(String.format("Position out of file. File size: %s, position: %s", size, position));
+		}
+		if (position >= windowStart && position < windowStart + windowLength) {
+			window.position((int) (position - windowStart));
+		} else {
+			map(position, windowSize);
+		}
+		return this;
+	}
+
+	/**
+		Returns the file size
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	    Returns the available file space
+	 */
+	public long available() {
+		return size - position() - 1;
+	}
+
+	/**
+	    Returns <b>true</b> if available() doesn't equals to 0
+	 */
+	public boolean hasAvailable() {
+		return available() > 0;
+	}
+
+	/**
+	    Skip object bytes, only the header is read
+	 */
+	public void skipObject() {
+		read(input -> {
+			input.skipObject();
+			return null;
+		});
+	}
+
+	/**
+	    Load an object by Class
+	 */
+	public <T> T readObject(Class<T> objectClass) {
+		return read(input -> input.readObject(objectClass));
+	}
+
+	/**
+	    Load an object by Signature
+	 */
+	public <T> T readObject() {
+		return read(SerializationInput::readObject);
+	}
+
+	/**
+		Closes the file. The mapped memory is released when the window is collected
+	 */
+	@Override
+	public void close() throws IOException {
+		window.reset(QuickSerializer.EMPTY);
+		channel.close();
+	}
+}
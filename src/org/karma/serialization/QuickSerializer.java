@@ -1,16 +1,44 @@
 package org.karma.serialization;
 
+import org.karma.serialization.serializers.ArraySerializers;
+import org.karma.serialization.serializers.BoxedSerializers;
 import org.karma.serialization.serializers.StringSerializer;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
+import java.util.ServiceLoader;
+
+import static java.lang.String.format;
 
 @SuppressWarnings(value = "unchecked")
 public class QuickSerializer
 {
 	// Registered serializers by Class
 	private static final HashMap<Class<?>, RuntimeSerializer<?>> SERIALIZERS = new HashMap<>();
+	// Registered serializers by signature. Indexed by the unsigned signature value
+	private static final RuntimeSerializer<?>[] SIGNATURES = new RuntimeSerializer<?>[1 << Short.SIZE];
+	static final byte[] EMPTY = new byte[0];
+	// Chunks of growing outputs
+	static final SerializationPool<byte[]> CHUNK_POOL = new SerializationPool<>(() -> new byte[4096], 256);
+	// Released inputs and outputs
+	private static final SerializationPool<SerializationOutput> OUTPUT_POOL = new SerializationPool<>(QuickSerializer::outputOf, 64);
+	private static final SerializationPool<SerializationInput> INPUT_POOL = new SerializationPool<>(() -> new SerializationInput(EMPTY), 64);
 
 	/**
 	 * Get a serializer by class.
@@ -20,22 +48,43 @@ public class QuickSerializer
 	 * @param <T> Required type
 	 */
 	static <T> RuntimeSerializer<T> getSerializer(Class<T> objectClass) {
-		return (RuntimeSerializer<T>) SERIALIZERS.get(objectClass);
+		var serializer = SERIALIZERS.get(objectClass);
+		if (serializer == null) {
+			serializer = SERIALIZERS.get(CollectionSerializers.containerOf(objectClass)); // Implementations of List, Set and Map share a serializer
+		}
+		return (RuntimeSerializer<T>) serializer;
 	}
 
 	/**
 	 * Get a serializer by signature.
 	 *
 	 * @param signature Serializer signature
-	 * @return Class serializer
+	 * @return Class serializer or null if there's no serializer with this signature
 	 * @param <T> Required type
 	 */
 	static <T> RuntimeSerializer<T> getSerializer(short signature) {
-		return (RuntimeSerializer<T>) SERIALIZERS.values()
-				.stream()
-				.filter(f -> f.signature == signature)
-				.findFirst()
-				.orElseThrow();
+		return (RuntimeSerializer<T>) SIGNATURES[signature & 0xffff];
+	}
+
+	/**
+	 * Put a serializer into both lookup tables.
+	 *
+	 * @param serializer Serializer to register
+	 * @param <T> Required type
+	 * @throws SerializerSignatureConflictException if the signature is already taken by another class
+	 */
+	private static synchronized <T> void register(RuntimeSerializer<T> serializer) {
+		var signatureIndex = serializer.signature() & 0xffff;
+		var registered = SIGNATURES[signatureIndex];
+		if (registered != null && registered.objectClass() != serializer.objectClass()) {
+			throw new SerializerSignatureConflictException(format("Signature 0x%s of %s is already used by %s",
+					Integer.toHexString(signatureIndex), serializer.objectClass().getName(), registered.objectClass().getName()));
+		}
+		var previous = SERIALIZERS.put(serializer.objectClass(), serializer);
+		if (previous != null) {
+			SIGNATURES[previous.signature() & 0xffff] = null; // The class was registered with another signature before
+		}
+		SIGNATURES[signatureIndex] = serializer;
 	}
 
 	/**
@@ -46,29 +95,81 @@ public class QuickSerializer
 	 * @param <T> Required type
 	 */
 	public static <T> void resisterEmpty(short signature, Class<T> objectClass) throws NoSuchMethodException {
-		var objectConstructor = objectClass.getDeclaredConstructor();
+		MethodHandle objectConstructor;
+		try {
+			objectConstructor = MethodHandles.lookup().unreflectConstructor(objectClass.getDeclaredConstructor())
+					.asType(MethodType.methodType(Object.class));
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
 		var objectSerializer = new Serializer<T>() {
 			@Override
 			public void serialize(SerializationOutput data, T object) {
 			}
 			@Override
-			public T deserialize(SerializationInput data) {
+			public T deserialize(SerializationInput data) throws InvocationTargetException {
 				try {
-					return objectConstructor.newInstance();
-				} catch (InstantiationException | InvocationTargetException | IllegalAccessException e) {
-					throw new RuntimeException("Failed to create a new instance", e);
+					return (T) (Object) objectConstructor.invokeExact();
+				} catch (RuntimeException | Error e) {
+					throw e;
+				} catch (Throwable t) {
+					throw new InvocationTargetException(t, "Failed to create a new instance");
 				}
 			}
 		};
-		SERIALIZERS.put(objectClass, new RuntimeSerializer<T>(objectClass, objectSerializer, signature, 0));
+		register(new RuntimeSerializer<T>(objectClass, objectSerializer, signature, 0));
+	}
+
+	/**
+	 * Register a serializer that is built from the record components, for records that can't be annotated.
+	 * Components are written in the declaration order: primitives, String, arrays of primitives and registered types.
+	 * The size of a record with only primitive components is known, the size of other records isn't limited.
+	 *
+	 * @param signature Serializer signature
+	 * @param recordClass Record class
+	 * @param <R> Required type
+	 * @throws SerializerSignatureConflictException if the signature is already taken by another class
+	 * @throws IllegalArgumentException if a component has an array type that isn't supported
+	 */
+	public static <R extends Record> void registerRecord(short signature, Class<R> recordClass) {
+		var recordSerializer = recordSerializerOf(recordClass);
+		register(new RuntimeSerializer<R>(recordClass, recordSerializer, signature, recordSerializer.bytes()));
+	}
+
+	/**
+	 * Register a serializer that is built from the record components, with the largest size of the record data
+	 * like SerializerObject.bytes(). A smaller size makes the COMPACT size header shorter.
+	 *
+	 * @param signature Serializer signature
+	 * @param recordClass Record class
+	 * @param bytes Largest size of the record data with the end of object mark
+	 * @param <R> Required type
+	 * @throws SerializerSignatureConflictException if the signature is already taken by another class
+	 * @throws IllegalArgumentException if a component has an array type that isn't supported, or bytes isn't positive
+	 */
+	public static <R extends Record> void registerRecord(short signature, Class<R> recordClass, int bytes) {
+		if (bytes <= 0) {
+			throw new IllegalArgumentException(format("Record size must be positive: %s", bytes));
+		}
+		register(new RuntimeSerializer<R>(recordClass, recordSerializerOf(recordClass), signature, bytes));
+	}
+
+	private static <R extends Record> RecordSerializer<R> recordSerializerOf(Class<R> recordClass) {
+		try {
+			return new RecordSerializer<>(recordClass);
+		} catch (IllegalAccessException | NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	private static <T> void registerSerializer(short signature, int bytes, Serializer<T> serializer) {
 		var serializerInterfaces = serializer.getClass().getGenericInterfaces();
 		assert serializerInterfaces.length != 0;
 		var serializerParamType = (ParameterizedType) serializerInterfaces[0];
-		var objectClass = (Class<T>) serializerParamType.getActualTypeArguments()[0];
-		SERIALIZERS.put(objectClass, new RuntimeSerializer<T>(objectClass, serializer, signature, bytes));
+		var objectType = serializerParamType.getActualTypeArguments()[0];
+		// The raw class of a parameterized type, List for Serializer<List<?>>
+		var objectClass = (Class<T>) (objectType instanceof ParameterizedType parameterizedType ? parameterizedType.getRawType() : objectType);
+		register(new RuntimeSerializer<T>(objectClass, serializer, signature, bytes));
 	}
 
 	private static <T> void registerSerializer(Serializer<T> serializer) {
@@ -85,6 +186,7 @@ public class QuickSerializer
 	 *
 	 * @param serializer Serializer class
 	 * @param <T> Required type
+	 * @throws SerializerSignatureConflictException if the signature is already taken by another class
 	 */
 	public static <T> void registerSerializer(Class<? extends Serializer<T>> serializer) {
 		Serializer<T> serializerInstance = null;
@@ -100,20 +202,302 @@ public class QuickSerializer
 		return new SerializationInput(data);
 	}
 
+	/**
+	 * Create an input over the data from the position to the limit of the buffer.
+	 * A direct buffer is read in place, without copying the data to the heap.
+	 *
+	 * @param data Serialized data, including the end of data mark
+	 * @return Input over the buffer
+	 */
+	public static SerializationInput inputOf(ByteBuffer data) {
+		return new SerializationInput(data);
+	}
+
+	/**
+	 * Take an input from the pool and point it at the data.
+	 * Give it back with releaseInput() when it's no longer used.
+	 *
+	 * @param data Serialized data
+	 * @return Pooled input
+	 */
+	public static SerializationInput acquireInput(byte[] data) {
+		var input = INPUT_POOL.acquire();
+		input.reset(data);
+		return input;
+	}
+
+	/**
+	 * Return an input taken by acquireInput() to the pool. It must not be used after that.
+	 *
+	 * @param input Pooled input
+	 */
+	public static void releaseInput(SerializationInput input) {
+		input.reset(EMPTY); // Don't keep the data reachable
+		input.order(ByteOrder.BIG_ENDIAN).format(SerializationFormat.STANDARD).trackReferences(false);
+		INPUT_POOL.release(input);
+	}
+
+	/**
+	 * Map the file written by SerializationOutput and read its objects in place.
+	 * Files larger than 2 GB are mapped in 2 GB windows.
+	 *
+	 * @param file Serialized data, including the end of data mark
+	 * @return Input over the file. Close it to close the file
+	 * @throws IOException if the file can't be opened
+	 */
+	public static MappedSerializationInput mappedInputOf(Path file) throws IOException {
+		return mappedInputOf(file, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Map the file written by SerializationOutput in windows of the given size.
+	 *
+	 * @param file Serialized data, including the end of data mark
+	 * @param windowSize Bytes mapped at once. A window grows up to 2 GB for a larger object
+	 * @return Input over the file. Close it to close the file
+	 * @throws IOException if the file can't be opened
+	 */
+	public static MappedSerializationInput mappedInputOf(Path file, int windowSize) throws IOException {
+		assertWindow(windowSize);
+		var channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return new MappedSerializationInput(channel, windowSize);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Create an input that is shared by threads. Each thread takes its own cursor with newCursor().
+	 *
+	 * @param data Serialized data
+	 * @return Shared input
+	 */
 	public static ConcurrentSerializationInput concurrentInputOf(byte[] data) {
 		return new ConcurrentSerializationInput(data);
 	}
 
+	/**
+	 * Create an output that grows on demand. Its memory is taken in 4 KB chunks from a shared pool,
+	 * so it doesn't need to know the size of data beforehand.
+	 *
+	 * @return Growing output
+	 */
+	public static SerializationOutput outputOf() {
+		return new SerializationOutput(CHUNK_POOL);
+	}
+
+	/**
+	 * Take a growing output from the pool. Give it back with releaseOutput() when it's no longer used,
+	 * so neither the output nor its chunks have to be allocated for the next message.
+	 *
+	 * @return Pooled empty output
+	 */
+	public static SerializationOutput acquireOutput() {
+		return OUTPUT_POOL.acquire();
+	}
+
+	/**
+	 * Return an output taken by acquireOutput() to the pool. It must not be used after that.
+	 *
+	 * @param output Pooled output
+	 */
+	public static void releaseOutput(SerializationOutput output) {
+		output.reset();
+		output.order(ByteOrder.BIG_ENDIAN).format(SerializationFormat.STANDARD).trackReferences(false).indexObjects(false);
+		OUTPUT_POOL.release(output);
+	}
+
 	public static SerializationOutput outputOf(int bufferCapacity) {
 		assertCapacity(bufferCapacity);
 		return new SerializationOutput(bufferCapacity);
 	}
 
+	/**
+	 * Create an output that writes into the buffer from its position to its limit, the last byte is kept for the end of data mark.
+	 * A direct buffer is written in place, so the data can go to a channel without a heap copy.
+	 *
+	 * @param buffer Target buffer. Its position and limit aren't changed
+	 * @return Output over the buffer
+	 */
+	public static SerializationOutput outputOf(ByteBuffer buffer) {
+		return new SerializationOutput(buffer);
+	}
+
+	/**
+	 * Create an output that writes the data to the stream as it goes, see StreamSerializationOutput.
+	 * Memory use is bounded by the window plus the largest object.
+	 *
+	 * @param stream Target stream. It's closed by close() of the output
+	 * @param windowSize Bytes buffered before they are written out
+	 * @return Streaming output
+	 */
+	public static StreamSerializationOutput streamOutputOf(OutputStream stream, int windowSize) {
+		assertWindow(windowSize);
+		return new StreamSerializationOutput(Channels.newChannel(stream), stream, windowSize);
+	}
+
+	/**
+	 * Create an output that writes the data to the channel as it goes, see StreamSerializationOutput.
+	 *
+	 * @param channel Target channel. It's closed by close() of the output
+	 * @param windowSize Bytes buffered before they are written out
+	 * @return Streaming output
+	 */
+	public static StreamSerializationOutput streamOutputOf(WritableByteChannel channel, int windowSize) {
+		assertWindow(windowSize);
+		return new StreamSerializationOutput(channel, null, windowSize);
+	}
+
+	/**
+	 * Create an input that reads the data from the stream as it goes, see StreamSerializationInput.
+	 *
+	 * @param stream Serialized data, including the end of data mark. It's closed by close() of the input
+	 * @param windowSize Initial buffer size, the buffer grows only for a larger object
+	 * @return Streaming input
+	 */
+	public static StreamSerializationInput streamInputOf(InputStream stream, int windowSize) {
+		assertWindow(windowSize);
+		return new StreamSerializationInput(Channels.newChannel(stream), windowSize);
+	}
+
+	/**
+	 * Create an input that reads the data from the blocking channel as it goes, see StreamSerializationInput.
+	 *
+	 * @param channel Serialized data, including the end of data mark. It's closed by close() of the input
+	 * @param windowSize Initial buffer size, the buffer grows only for a larger object
+	 * @return Streaming input
+	 */
+	public static StreamSerializationInput streamInputOf(ReadableByteChannel channel, int windowSize) {
+		assertWindow(windowSize);
+		return new StreamSerializationInput(channel, windowSize);
+	}
+
+	/**
+	 * Create a container file of blocks of top-level objects with checksums and an index, see SerializationContainerWriter.
+	 * The file is created or truncated.
+	 *
+	 * @param file Target file. It's closed by close() of the writer, which writes the index
+	 * @param blockSize Bytes of objects in a block, up to SerializationCompressor.MAX_BLOCK_SIZE. A block ends after the object that fills it
+	 * @return Container writer
+	 * @throws IOException if the file can't be opened
+	 */
+	public static SerializationContainerWriter containerWriterOf(Path file, int blockSize) throws IOException {
+		assertBlock(blockSize);
+		return new SerializationContainerWriter(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), blockSize);
+	}
+
+	/**
+	 * Open a container file written by containerWriterOf(), see SerializationContainerReader.
+	 *
+	 * @param file Container file
+	 * @return Container reader. Close it to close the file
+	 * @throws IOException if the file can't be opened
+	 */
+	public static SerializationContainerReader containerReaderOf(Path file) throws IOException {
+		var channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return new SerializationContainerReader(channel);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Create an output that compresses the data in blocks and writes them to the stream as it goes.
+	 * Every block is decompressed on its own, see SerializationCompressor.
+	 *
+	 * @param stream Target stream. It's closed by close() of the output
+	 * @param compression Compression of blocks, SerializationCompression.lz() or deflate()
+	 * @param blockSize Bytes compressed at once, up to SerializationCompressor.MAX_BLOCK_SIZE. It's the window of the output too
+	 * @return Streaming output
+	 */
+	public static StreamSerializationOutput compressedOutputOf(OutputStream stream, SerializationCompression compression, int blockSize) {
+		assertBlock(blockSize);
+		var compressor = new SerializationCompressor(compression, blockSize, Channels.newChannel(stream), stream);
+		return new StreamSerializationOutput(compressor, compressor, blockSize);
+	}
+
+	/**
+	 * Create an input that reads the data written by compressedOutputOf() from the stream as it goes.
+	 *
+	 * @param stream Compressed data. It's closed by close() of the input
+	 * @param compression The compression the data was written with
+	 * @param windowSize Initial buffer size, the buffer grows only for a larger object
+	 * @return Streaming input
+	 */
+	public static StreamSerializationInput compressedInputOf(InputStream stream, SerializationCompression compression, int windowSize) {
+		assertWindow(windowSize);
+		return new StreamSerializationInput(new SerializationDecompressor(compression, Channels.newChannel(stream)), windowSize);
+	}
+
+	/**
+	 * Create a compressor that is kept between messages, its buffers are allocated once.
+	 * Point it at the target with reset(), write the message with SerializationOutput.writeTo() and flush() it.
+	 *
+	 * @param compression Compression of blocks
+	 * @param blockSize Bytes compressed at once, up to SerializationCompressor.MAX_BLOCK_SIZE
+	 * @return Compressor without a target channel
+	 */
+	public static SerializationCompressor compressorOf(SerializationCompression compression, int blockSize) {
+		assertBlock(blockSize);
+		return new SerializationCompressor(compression, blockSize, null, null);
+	}
+
+	/**
+	 * Create a decompressor that is kept between messages. Point it at the source with reset().
+	 *
+	 * @param compression The compression the data was written with
+	 * @return Decompressor without a source channel
+	 */
+	public static SerializationDecompressor decompressorOf(SerializationCompression compression) {
+		return new SerializationDecompressor(compression, null);
+	}
+
+	/**
+	 * Create a decoder of objects that arrive in parts, see SerializationDecoder.
+	 *
+	 * @param bufferSize Initial buffer size, the buffer grows only for a larger object
+	 * @return Incremental decoder
+	 */
+	public static SerializationDecoder decoderOf(int bufferSize) {
+		assertWindow(bufferSize);
+		return new SerializationDecoder(bufferSize);
+	}
+
+	/**
+	 * Create a codec for a non-blocking socket, see SerializationChannelCodec.
+	 *
+	 * @param channel Connected socket
+	 * @param bufferSize Initial receive buffer size, the buffer grows only for a larger object
+	 * @return Codec of the connection
+	 */
+	public static SerializationChannelCodec codecOf(SocketChannel channel, int bufferSize) {
+		assertWindow(bufferSize);
+		return new SerializationChannelCodec(channel, bufferSize);
+	}
+
 	public static ConcurrentSerializationOutput concurrentOutputOf(int bufferCapacity) {
 		assertCapacity(bufferCapacity);
 		return new ConcurrentSerializationOutput(bufferCapacity);
 	}
 
+	private static void assertWindow(int windowSize) {
+		if (windowSize > 0) {
+			return;
+		}
+		throw new IllegalArgumentException(format("Window size must be positive: %s", windowSize));
+	}
+
+	private static void assertBlock(int blockSize) {
+		if (blockSize > 0 && blockSize <= SerializationCompressor.MAX_BLOCK_SIZE) {
+			return;
+		}
+		throw new IllegalArgumentException(format("Block size must be from 1 to %s: %s", SerializationCompressor.MAX_BLOCK_SIZE, blockSize));
+	}
+
 	private static void assertCapacity(int capacity) {
 		if (Integer.MAX_VALUE - capacity >= 0) {
 			return;
@@ -124,6 +508,25 @@ public class QuickSerializer
 	static {
 		// Register java.lang.String serializer
 		registerSerializer(StringSerializer.class);
+		// Index of top-level objects at the end of data
+		registerSerializer(SerializationIndex.IndexSerializer.class);
+		// Collections, arrays and boxed primitives, signatures 0x12-0x25
+		registerSerializer(new CollectionSerializers.ListSerializer());
+		registerSerializer(new CollectionSerializers.SetSerializer());
+		registerSerializer(new CollectionSerializers.MapSerializer());
+		registerSerializer(new CollectionSerializers.ArraySerializer());
+		for (var serializer : ArraySerializers.class.getClasses()) {
+			registerSerializer((Class<? extends Serializer<Object>>) serializer);
+		}
+		for (var serializer : BoxedSerializers.class.getClasses()) {
+			registerSerializer((Class<? extends Serializer<Object>>) serializer);
+		}
+		// Columns of records, signature 0x26
+		registerSerializer(new SerializationBatch.BatchSerializer());
+		// Serializers generated by SerializerProcessor
+		for (Serializer<?> serializer : ServiceLoader.load(Serializer.class)) {
+			registerSerializer(serializer);
+		}
 	}
 
 	record RuntimeSerializer<T>(Class<T> objectClass, Serializer<T> serializerInstance, short signature, int bytes) {
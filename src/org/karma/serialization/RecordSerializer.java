@@ -0,0 +1,283 @@
+package org.karma.serialization;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ *  Serializer of a record that is built at runtime from its components, registered with QuickSerializer.registerRecord().
+ *  Accessors and the canonical constructor are called through MethodHandles adapted to exact types, so there is no reflection per object.
+ *  Components are written in the declaration order, the same way as a serializer generated by SerializerProcessor.
+ */
+final class RecordSerializer<R> implements Serializer<R> {
+	private static final MethodType OBJECT_GETTER = MethodType.methodType(Object.class, Object.class);
+
+	private final Kind[] kinds;
+	private final String[] names;
+	private final MethodHandle[] getters; // (Object) -> component type, the component type is Object for references
+	private final Class<?>[] types;
+	private final MethodHandle constructor; // (Object[]) -> Object
+
+	/**
+		How a component is written. Arrays of primitives are written with bulk writes
+	 */
+	enum Kind {
+		BOOLEAN, BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE, STRING, BYTES, SHORTS, INTS, LONGS, FLOATS, DOUBLES, OBJECT
+	}
+
+	RecordSerializer(Class<R> recordClass) throws IllegalAccessException, NoSuchMethodException {
+		var lookup = MethodHandles.privateLookupIn(recordClass, MethodHandles.lookup());
+		var components = recordClass.getRecordComponents();
+		kinds = new Kind[components.length];
+		names = new String[components.length];
+		getters = new MethodHandle[components.length];
+		types = new Class<?>[components.length];
+		for (int i = 0; i < components.length; i++) {
+			types[i] = components[i].getType();
+			kinds[i] = kindOf(components[i]);
+			names[i] = components[i].getName();
+			var getter = lookup.unreflect(components[i].getAccessor());
+			getters[i] = getter.asType(types[i].isPrimitive() ? MethodType.methodType(types[i], Object.class) : OBJECT_GETTER);
+		}
+		constructor = lookup.findConstructor(recordClass, MethodType.methodType(void.class, types))
+				.asSpreader(Object[].class, components.length)
+				.asType(MethodType.methodType(Object.class, Object[].class));
+	}
+
+	private static Kind kindOf(RecordComponent component) {
+		var type = component.getType();
+		if (type == boolean.class) return Kind.BOOLEAN;
+		if (type == byte.class) return Kind.BYTE;
+		if (type == short.class) return Kind.SHORT;
+		if (type == char.class) return Kind.CHAR;
+		if (type == int.class) return Kind.INT;
+		if (type == long.class) return Kind.LONG;
+		if (type == float.class) return Kind.FLOAT;
+		if (type == double.class) return Kind.DOUBLE;
+		if (type == String.class) return Kind.STRING;
+		if (type == byte[].class) return Kind.BYTES;
+		if (type == short[].class) return Kind.SHORTS;
+		if (type == int[].class) return Kind.INTS;
+		if (type == long[].class) return Kind.LONGS;
+		if (type == float[].class) return Kind.FLOATS;
+		if (type == double[].class) return Kind.DOUBLES;
+		if (type.isArray()) {
+			throw new IllegalArgumentException(String.format("Component %s: only arrays of byte, short, int, long, float and double are supported", component.getName()));
+		}
+		return Kind.OBJECT;
+	}
+
+	int components() {
+		return kinds.length;
+	}
+
+	Kind kind(int component) {
+		return kinds[component];
+	}
+
+	String name(int component) {
+		return names[component];
+	}
+
+	Class<?> type(int component) {
+		return types[component];
+	}
+
+	/**
+		Returns the accessor of the component, adapted to (Object) -> component type, or (Object) -> Object for references
+	 */
+	MethodHandle getter(int component) {
+		return getters[component];
+	}
+
+	/**
+		Creates the record with the canonical constructor, the values are in the component order
+	 */
+	@SuppressWarnings(value = "unchecked")
+	R construct(Object[] values) throws InvocationTargetException {
+		try {
+			return (R) (Object) constructor.invokeExact(values);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+
+	/**
+		Returns the sum of the largest encoded widths of the components and the end of object mark if they are all primitives,
+		or Integer.MAX_VALUE if a component has a variable size, so the size of the record isn't limited
+	 */
+	int bytes() {
+		var bytes = 1; // End of object mark
+		for (var kind : kinds) {
+			switch (kind) {
+				case BOOLEAN, BYTE -> bytes += 1;
+				case SHORT -> bytes += 2;
+				case CHAR, FLOAT -> bytes += 4;
+				case INT -> bytes += 5; // 4 bytes or a varint of up to 5 bytes in COMPACT format
+				case DOUBLE -> bytes += 8;
+				case LONG -> bytes += 10;
+				default -> {
+					return Integer.MAX_VALUE;
+				}
+			}
+		}
+		return bytes;
+	}
+
+	@Override
+	public void serialize(SerializationOutput data, R object) {
+		try {
+			for (int i = 0; i < kinds.length; i++) {
+				var getter = getters[i];
+				switch (kinds[i]) {
+					case BOOLEAN -> data.writeBoolean((boolean) getter.invokeExact(object));
+					case BYTE -> data.writeByte((byte) getter.invokeExact(object));
+					case SHORT -> data.writeShort((short) getter.invokeExact(object));
+					case CHAR -> data.writeChar((char) getter.invokeExact(object));
+					case INT -> data.writeInt((int) getter.invokeExact(object));
+					case LONG -> data.writeLong((long) getter.invokeExact(object));
+					case FLOAT -> data.writeFloat((float) getter.invokeExact(object));
+					case DOUBLE -> data.writeDouble((double) getter.invokeExact(object));
+					case STRING -> data.writeString((String) (Object) getter.invokeExact(object));
+					default -> writeReference(data, kinds[i], types[i], (Object) getter.invokeExact(object));
+				}
+			}
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new UndeclaredThrowableException(t);
+		}
+	}
+
+	/**
+		Arrays are written as an int length and the elements, a negative length means a null array
+	 */
+	private static void writeReference(SerializationOutput data, Kind kind, Class<?> type, Object value) {
+		if (kind == Kind.OBJECT) {
+			if (value == null) {
+				data.writeNull(type);
+			} else {
+				data.writeObject(value);
+			}
+			return;
+		}
+		if (value == null) {
+			data.writeInt(-1);
+			return;
+		}
+		switch (kind) {
+			case BYTES -> {
+				var array = (byte[]) value;
+				data.writeInt(array.length);
+				data.writeBytes(array, 0, array.length);
+			}
+			case SHORTS -> {
+				var array = (short[]) value;
+				data.writeInt(array.length);
+				data.writeShorts(array, 0, array.length);
+			}
+			case INTS -> {
+				var array = (int[]) value;
+				data.writeInt(array.length);
+				data.writeInts(array, 0, array.length);
+			}
+			case LONGS -> {
+				var array = (long[]) value;
+				data.writeInt(array.length);
+				data.writeLongs(array, 0, array.length);
+			}
+			case FLOATS -> {
+				var array = (float[]) value;
+				data.writeInt(array.length);
+				data.writeFloats(array, 0, array.length);
+			}
+			case DOUBLES -> {
+				var array = (double[]) value;
+				data.writeInt(array.length);
+				data.writeDoubles(array, 0, array.length);
+			}
+			default -> throw new IllegalStateException(kind.name());
+		}
+	}
+
+	@Override
+	public R deserialize(SerializationInput data) throws InvocationTargetException {
+		var values = new Object[kinds.length];
+		for (int i = 0; i < kinds.length; i++) {
+			values[i] = switch (kinds[i]) {
+				case BOOLEAN -> data.readBoolean();
+				case BYTE -> data.readByte();
+				case SHORT -> data.readShort();
+				case CHAR -> data.readChar();
+				case INT -> data.readInt();
+				case LONG -> data.readLong();
+				case FLOAT -> data.readFloat();
+				case DOUBLE -> data.readDouble();
+				case STRING -> data.readString();
+				case OBJECT -> data.readObject(); // By signature, the value may be a subclass
+				default -> readArray(data, kinds[i]);
+			};
+		}
+		return construct(values);
+	}
+
+	private static Object readArray(SerializationInput data, Kind kind) {
+		var length = data.readInt();
+		if (length < 0) {
+			return null;
+		}
+		if ((long) length * elementWidth(kind) > data.available()) {
+			throw new SerializerObjectLoadException(String.format("Malformed array of %s elements", length));
+		}
+		switch (kind) {
+			case BYTES -> {
+				var array = new byte[length];
+				data.readBytes(array, 0, length);
+				return array;
+			}
+			case SHORTS -> {
+				var array = new short[length];
+				data.readShorts(array, 0, length);
+				return array;
+			}
+			case INTS -> {
+				var array = new int[length];
+				data.readInts(array, 0, length);
+				return array;
+			}
+			case LONGS -> {
+				var array = new long[length];
+				data.readLongs(array, 0, length);
+				return array;
+			}
+			case FLOATS -> {
+				var array = new float[length];
+				data.readFloats(array, 0, length);
+				return array;
+			}
+			case DOUBLES -> {
+				var array = new double[length];
+				data.readDoubles(array, 0, length);
+				return array;
+			}
+			default -> throw new IllegalStateException(kind.name());
+		}
+	}
+
+	/**
+		Returns the bytes of an array element, bulk reads don't use the COMPACT encoding
+	 */
+	private static int elementWidth(Kind kind) {
+		return switch (kind) {
+			case SHORTS -> Short.BYTES;
+			case INTS, FLOATS -> Integer.BYTES;
+			case LONGS, DOUBLES -> Long.BYTES;
+			default -> 1;
+		};
+	}
+}
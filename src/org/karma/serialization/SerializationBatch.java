@@ -0,0 +1,500 @@
+package org.karma.serialization;
+
+import org.karma.serialization.RecordSerializer.Kind;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ *  Records of one type written column by column: all values of a component are together, for example all amounts of Apple.
+ *  Numbers are written with bulk writes, strings are dictionary encoded, other values are written with writeObject().
+ *  Write a batch of records with writeObject(SerializationBatch.of(Apple.class, apples)) and read it with readObject().
+ *  A column of the read batch is decoded by its getter, without creating the records.
+ *
+ *  The record type must have a registered serializer, its signature identifies the type of the batch.
+ *  A read batch reads the data of the input, so it must not be used after the input is reset.
+ */
+public final class SerializationBatch<R extends Record> {
+	public static final short SIGNATURE = 0x26;
+
+	// Component accessors of the record types
+	private static final ClassValue<RecordSerializer<?>> RECORDS = new ClassValue<>() {
+		@Override
+		protected RecordSerializer<?> computeValue(Class<?> recordClass) {
+			try {
+				return new RecordSerializer<>(recordClass);
+			} catch (IllegalAccessException | NoSuchMethodException e) {
+				throw new IllegalArgumentException(String.format("Can't access the components of %s", recordClass.getName()), e);
+			}
+		}
+	};
+
+	private final Class<R> type;
+	private final RecordSerializer<R> record;
+	private final int size;
+	private final List<R> records; // Records of a batch that is written, null for a read batch
+	private final SerializationInput source; // Data of a read batch
+	private final int[] columnStarts;
+	private final Object[] columns; // Decoded columns: arrays of primitives, a Dictionary or an Object[]
+
+	/**
+		Dictionary encoded strings, a negative code means null
+	 */
+	private record Dictionary(String[] values, int[] codes) {
+	}
+
+	@SuppressWarnings(value = "unchecked")
+	private SerializationBatch(Class<R> type, int size, List<R> records, SerializationInput source, int[] columnStarts) {
+		this.type = type;
+		this.record = (RecordSerializer<R>) RECORDS.get(type);
+		this.size = size;
+		this.records = records;
+		this.source = source;
+		this.columnStarts = columnStarts;
+		this.columns = new Object[record.components()];
+	}
+
+	/**
+		Returns a batch of the records to write with SerializationOutput.writeObject(). The records must not be null
+	 */
+	public static <R extends Record> SerializationBatch<R> of(Class<R> type, List<R> records) {
+		if (QuickSerializer.getSerializer(type) == null) {
+			throw new SerializerObjectUnknownException(String.format("Unknown serializer: %s", type.getSimpleName()));
+		}
+		return new SerializationBatch<>(type, records.size(), records, null, null);
+	}
+
+	/**
+		Returns the record type
+	 */
+	public Class<R> type() {
+		return type;
+	}
+
+	/**
+		Returns how many records are in the batch
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+		Returns the names of the columns, they are the record components
+	 */
+	public List<String> columnNames() {
+		var names = new ArrayList<String>(record.components());
+		for (int i = 0; i < record.components(); i++) {
+			names.add(record.name(i));
+		}
+		return names;
+	}
+
+	public boolean[] booleans(String column) {
+		return (boolean[]) column(column, Kind.BOOLEAN);
+	}
+
+	public byte[] bytes(String column) {
+		return (byte[]) column(column, Kind.BYTE);
+	}
+
+	public short[] shorts(String column) {
+		return (short[]) column(column, Kind.SHORT);
+	}
+
+	public char[] chars(String column) {
+		return (char[]) column(column, Kind.CHAR);
+	}
+
+	public int[] ints(String column) {
+		return (int[]) column(column, Kind.INT);
+	}
+
+	public long[] longs(String column) {
+		return (long[]) column(column, Kind.LONG);
+	}
+
+	public float[] floats(String column) {
+		return (float[]) column(column, Kind.FLOAT);
+	}
+
+	public double[] doubles(String column) {
+		return (double[]) column(column, Kind.DOUBLE);
+	}
+
+	/**
+		Returns the strings of the column, equal strings are the same instance
+	 */
+	public String[] strings(String column) {
+		var dictionary = (Dictionary) column(column, Kind.STRING);
+		var strings = new String[size];
+		for (int i = 0; i < size; i++) {
+			var code = dictionary.codes[i];
+			strings[i] = code < 0 ? null : dictionary.values[code];
+		}
+		return strings;
+	}
+
+	/**
+		Returns the distinct strings of the column, the codes of stringCodes() are indexes in it
+	 */
+	public String[] dictionary(String column) {
+		return ((Dictionary) column(column, Kind.STRING)).values.clone();
+	}
+
+	/**
+		Returns the dictionary codes of the strings of the column, -1 for null. A scan can compare codes instead of strings
+	 */
+	public int[] stringCodes(String column) {
+		return ((Dictionary) column(column, Kind.STRING)).codes.clone();
+	}
+
+	/**
+		Returns the values of a column that isn't a primitive or a String column
+	 */
+	public Object[] objects(String column) {
+		return ((Object[]) column(column, Kind.OBJECT)).clone();
+	}
+
+	/**
+		Returns the records, a read batch creates them from all columns
+	 */
+	public List<R> records() {
+		if (records != null) {
+			return records;
+		}
+		var components = record.components();
+		var values = new Object[components];
+		for (int i = 0; i < components; i++) {
+			values[i] = decode(i);
+		}
+		var created = new ArrayList<R>(size);
+		var arguments = new Object[components];
+		try {
+			for (int row = 0; row < size; row++) {
+				for (int i = 0; i < components; i++) {
+					arguments[i] = valueOf(values[i], row);
+				}
+				created.add(record.construct(arguments));
+			}
+		} catch (InvocationTargetException e) {
+			throw new SerializerObjectLoadException(String.format("Failed to create %s", type.getSimpleName()), e.getCause());
+		}
+		return created;
+	}
+
+	private static Object valueOf(Object column, int row) {
+		if (column instanceof Dictionary dictionary) {
+			var code = dictionary.codes[row];
+			return code < 0 ? null : dictionary.values[code];
+		}
+		if (column instanceof Object[] objects) {
+			return objects[row];
+		}
+		return Array.get(column, row); // Boxes the primitive for the constructor
+	}
+
+	/**
+		Returns the decoded column of the component with the name
+	 */
+	private Object column(String name, Kind kind) {
+		for (int i = 0; i < record.components(); i++) {
+			if (record.name(i).equals(name)) {
+				var columnKind = columnKind(record.kind(i));
+				if (columnKind != kind) {
+					throw new IllegalArgumentException(String.format("Column %s of %s is %s, not %s", name, type.getSimpleName(), columnKind, kind));
+				}
+				return decode(i);
+			}
+		}
+		throw new IllegalArgumentException(String.format("%s doesn't have the column %s", type.getSimpleName(), name));
+	}
+
+	/**
+		Arrays of primitives are written with writeObject() too
+	 */
+	private static Kind columnKind(Kind kind) {
+		return switch (kind) {
+			case BYTES, SHORTS, INTS, LONGS, FLOATS, DOUBLES -> Kind.OBJECT;
+			default -> kind;
+		};
+	}
+
+	/**
+		Returns the least number of bytes a record takes in the column: the width of a number, the code of a string,
+		or at least the header of an object
+	 */
+	private static int columnWidth(Kind kind) {
+		return switch (columnKind(kind)) {
+			case SHORT, CHAR -> Short.BYTES;
+			case INT, FLOAT, STRING -> Integer.BYTES;
+			case LONG, DOUBLE -> Long.BYTES;
+			default -> 1;
+		};
+	}
+
+	private Object decode(int component) {
+		var column = columns[component];
+		if (column != null) {
+			return column;
+		}
+		column = records != null ? extract(component) : read(component);
+		if (columnKind(record.kind(component)) == Kind.STRING) {
+			columns[component] = column; // Primitive columns are decoded for every call, the caller owns the array
+		}
+		return column;
+	}
+
+	/**
+		Collects the values of the component from the records
+	 */
+	private Object extract(int component) {
+		var getter = record.getter(component);
+		try {
+			switch (columnKind(record.kind(component))) {
+				case BOOLEAN -> {
+					var values = new boolean[size];
+					for (int i = 0; i < size; i++) values[i] = (boolean) getter.invokeExact((Object) records.get(i));
+					return values;
+				}
+				case BYTE -> {
+					var values = new byte[size];
+					for (int i = 0; i < size; i++) values[i] = (byte) getter.invokeExact((Object) records.get(i));
+					return values;
+				}
+				case SHORT -> {
+					var values = new short[size];
+					for (int i = 0; i < size; i++) values[i] = (short) getter.invokeExact((Object) records.get(i));
+					return values;
+				}
+				case CHAR -> {
+					var values = new char[size];
+					for (int i = 0; i < size; i++) values[i] = (char) getter.invokeExact((Object) records.get(i));
+					return values;
+				}
+				case INT -> {
+					var values = new int[size];
+					for (int i = 0; i < size; i++) values[i] = (int) getter.invokeExact((Object) records.get(i));
+					return values;
+				}
+				case LONG -> {
+					var values = new long[size];
+					for (int i = 0; i < size; i++) values[i] = (long) getter.invokeExact((Object) records.get(i));
+					return values;
+				}
+				case FLOAT -> {
+					var values = new float[size];
+					for (int i = 0; i < size; i++) values[i] = (float) getter.invokeExact((Object) records.get(i));
+					return values;
+				}
+				case DOUBLE -> {
+					var values = new double[size];
+					for (int i = 0; i < size; i++) values[i] = (double) getter.invokeExact((Object) records.get(i));
+					return values;
+				}
+				case STRING -> {
+					var codes = new int[size];
+					var dictionary = new HashMap<String, Integer>();
+					for (int i = 0; i < size; i++) {
+						var value = (String) (Object) getter.invokeExact((Object) records.get(i));
+						codes[i] = value == null ? -1 : dictionary.computeIfAbsent(value, key -> dictionary.size());
+					}
+					var values = new String[dictionary.size()];
+					dictionary.forEach((value, code) -> values[code] = value);
+					return new Dictionary(values, codes);
+				}
+				default -> {
+					var values = new Object[size];
+					for (int i = 0; i < size; i++) values[i] = (Object) getter.invokeExact((Object) records.get(i));
+					return values;
+				}
+			}
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalStateException(String.format("Failed to get %s of %s", record.name(component), type.getSimpleName()), t);
+		}
+	}
+
+	/**
+		Decodes the column from the data of the batch
+	 */
+	private Object read(int component) {
+		var data = source;
+		data.position(columnStarts[component]);
+		switch (columnKind(record.kind(component))) {
+			case BOOLEAN -> {
+				var bytes = new byte[size];
+				data.readBytes(bytes, 0, size);
+				var values = new boolean[size];
+				for (int i = 0; i < size; i++) values[i] = bytes[i] != 0;
+				return values;
+			}
+			case BYTE -> {
+				var values = new byte[size];
+				data.readBytes(values, 0, size);
+				return values;
+			}
+			case SHORT -> {
+				var values = new short[size];
+				data.readShorts(values, 0, size);
+				return values;
+			}
+			case CHAR -> {
+				var shorts = new short[size];
+				data.readShorts(shorts, 0, size);
+				var values = new char[size];
+				for (int i = 0; i < size; i++) values[i] = (char) shorts[i];
+				return values;
+			}
+			case INT -> {
+				var values = new int[size];
+				data.readInts(values, 0, size);
+				return values;
+			}
+			case LONG -> {
+				var values = new long[size];
+				data.readLongs(values, 0, size);
+				return values;
+			}
+			case FLOAT -> {
+				var values = new float[size];
+				data.readFloats(values, 0, size);
+				return values;
+			}
+			case DOUBLE -> {
+				var values = new double[size];
+				data.readDoubles(values, 0, size);
+				return values;
+			}
+			case STRING -> {
+				var dictionarySize = data.readInt();
+				if (dictionarySize < 0 || dictionarySize > data.available()) {
+					throw new SerializerObjectLoadException(String.format("Malformed dictionary of %s strings", dictionarySize));
+				}
+				var values = new String[dictionarySize];
+				for (int i = 0; i < dictionarySize; i++) {
+					values[i] = data.readString();
+				}
+				var codes = new int[size];
+				data.readInts(codes, 0, size);
+				for (var code : codes) {
+					if (code >= dictionarySize) {
+						throw new SerializerObjectLoadException(String.format("String code %s out of dictionary (%s strings)", code, dictionarySize));
+					}
+				}
+				return new Dictionary(values, codes);
+			}
+			default -> throw new IllegalStateException("Object columns are read with the batch");
+		}
+	}
+
+	/**
+		The data is the record signature, the number of records and columns, the columns and the column offsets from the start of data.
+		Offsets are written with a bulk write, so the reader finds them at the end of data
+	 */
+	@SerializerObject(signature = SIGNATURE, bytes = Integer.MAX_VALUE)
+	static final class BatchSerializer implements Serializer<SerializationBatch<?>> {
+
+		@Override
+		public void serialize(SerializationOutput data, SerializationBatch<?> batch) {
+			var start = data.position();
+			var record = batch.record;
+			var components = record.components();
+			data.writeSignature(QuickSerializer.getSerializer(batch.type).signature());
+			data.writeInt(batch.size);
+			data.writeInt(components);
+			var columnStarts = new int[components];
+			for (int i = 0; i < components; i++) {
+				columnStarts[i] = data.position() - start;
+				var column = batch.decode(i);
+				switch (columnKind(record.kind(i))) {
+					case BOOLEAN -> {
+						var values = (boolean[]) column;
+						var bytes = new byte[values.length];
+						for (int j = 0; j < values.length; j++) bytes[j] = (byte) (values[j] ? 1 : 0);
+						data.writeBytes(bytes, 0, bytes.length);
+					}
+					case BYTE -> data.writeBytes((byte[]) column, 0, batch.size);
+					case SHORT -> data.writeShorts((short[]) column, 0, batch.size);
+					case CHAR -> {
+						var values = (char[]) column;
+						var shorts = new short[values.length];
+						for (int j = 0; j < values.length; j++) shorts[j] = (short) values[j];
+						data.writeShorts(shorts, 0, shorts.length);
+					}
+					case INT -> data.writeInts((int[]) column, 0, batch.size);
+					case LONG -> data.writeLongs((long[]) column, 0, batch.size);
+					case FLOAT -> data.writeFloats((float[]) column, 0, batch.size);
+					case DOUBLE -> data.writeDoubles((double[]) column, 0, batch.size);
+					case STRING -> {
+						var dictionary = (Dictionary) column;
+						data.writeInt(dictionary.values.length);
+						for (var value : dictionary.values) data.writeString(value);
+						data.writeInts(dictionary.codes, 0, batch.size);
+					}
+					default -> {
+						var type = record.type(i);
+						for (var value : (Object[]) column) {
+							if (value == null) {
+								data.writeNull(type);
+							} else {
+								data.writeObject(value);
+							}
+						}
+					}
+				}
+			}
+			data.writeInts(columnStarts, 0, components);
+		}
+
+		@Override
+		@SuppressWarnings(value = {"unchecked", "rawtypes"})
+		public SerializationBatch<?> deserialize(SerializationInput data) {
+			var start = data.position();
+			var signature = data.readSignature();
+			var serializer = QuickSerializer.getSerializer(signature);
+			if (serializer == null) {
+				throw new SerializerObjectUnknownException(String.format("Unknown serializer of the batch: 0x%s", Integer.toHexString(signature & 0xffff)));
+			}
+			if (!serializer.objectClass().isRecord()) {
+				throw new SerializerObjectLoadException(String.format("%s of the batch isn't a record", serializer.objectClass().getSimpleName()));
+			}
+			var size = data.readInt();
+			var components = data.readInt();
+			var record = RECORDS.get(serializer.objectClass());
+			if (size < 0 || components != record.components()) {
+				throw new SerializerObjectLoadException(String.format("Malformed batch of %s records with %s columns, %s has %s components",
+						size, components, serializer.objectClass().getSimpleName(), record.components()));
+			}
+			var footer = data.position() + data.available() - components * Integer.BYTES;
+			var recordBytes = 0;
+			for (int i = 0; i < components; i++) {
+				recordBytes += columnWidth(record.kind(i));
+			}
+			if ((long) size * recordBytes > footer - data.position()) { // Nothing is allocated for the records before their columns are known to fit
+				throw new SerializerObjectLoadException(String.format("Malformed batch of %s records in %s bytes", size, footer - data.position()));
+			}
+			data.position(footer);
+			var columnStarts = new int[components];
+			data.readInts(columnStarts, 0, components);
+			for (int i = 0; i < components; i++) {
+				columnStarts[i] += start;
+			}
+			var batch = new SerializationBatch(serializer.objectClass(), size, null, data, columnStarts);
+			for (int i = 0; i < components; i++) {
+				if (columnKind(record.kind(i)) == Kind.OBJECT) { // Objects are read in order, so back-references find their objects
+					data.position(columnStarts[i]);
+					var values = new Object[size];
+					for (int j = 0; j < size; j++) {
+						values[j] = data.readObject();
+					}
+					batch.columns[i] = values;
+				}
+			}
+			return batch;
+		}
+	}
+}
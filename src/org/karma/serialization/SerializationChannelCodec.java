@@ -0,0 +1,137 @@
+package org.karma.serialization;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+/**
+ *  Reads and writes top-level objects over a non-blocking SocketChannel, one codec per connection.
+ *  Call receive() when the channel is readable and take the objects while hasObject() is true,
+ *  call flush() when the channel is writable and keep OP_WRITE only while hasPending() is true.
+ *  Received data is kept by a SerializationDecoder and objects are decoded right from its buffer,
+ *  sent objects are encoded into pooled chunks that are written with one gathering write.
+ *  The stream has no end of data mark, and references can't be tracked.
+ *  An object longer than maxObjectLength() is rejected as soon as its header is received, so a peer can't make the buffer grow without limit.
+ *  Not thread-safe: a connection is served by one selector thread.
+ */
+public class SerializationChannelCodec {
+	private final SocketChannel channel;
+	private final SerializationDecoder decoder; // Received data, it keeps the limit of the object length
+	private final SerializationOutput output; // Encoded objects that aren't written to the channel yet
+	private int sent; // Bytes of output the channel has taken
+
+	SerializationChannelCodec(SocketChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.decoder = new SerializationDecoder(bufferSize);
+		this.output = new SerializationOutput(QuickSerializer.CHUNK_POOL);
+	}
+
+	/**
+		Set the byte order of numbers for both directions
+	 */
+	public SerializationChannelCodec order(ByteOrder order) {
+		decoder.order(order);
+		output.order(order);
+		return this;
+	}
+
+	/**
+		Set the encoding of numbers and object headers for both directions
+	 */
+	public SerializationChannelCodec format(SerializationFormat format) {
+		decoder.format(format);
+		output.format(format);
+		return this;
+	}
+
+	/**
+		Set the largest length of a received object with its header, SerializationDecoder.DEFAULT_MAX_OBJECT_LENGTH by default.
+		A longer one is rejected by receive()
+	 */
+	public SerializationChannelCodec maxObjectLength(int maxObjectLength) {
+		decoder.maxObjectLength(maxObjectLength);
+		return this;
+	}
+
+	/**
+		Returns the largest length of a received object with its header
+	 */
+	public int maxObjectLength() {
+		return decoder.maxObjectLength();
+	}
+
+	/**
+		Reads the bytes the channel has. Returns how many bytes are read, or -1 at the end of stream.
+		The buffer grows when an object doesn't fit into it, up to maxObjectLength().
+		Throws SerializerObjectLoadException if the header of the next object tells a longer length, the connection should be closed then
+	 */
+	public int receive() throws IOException {
+		var read = decoder.receive(channel);
+		decoder.needed(); // Checks the header that has just arrived
+		return read;
+	}
+
+	/**
+		Returns true if the next object is received completely, so readObject() can return it
+	 */
+	public boolean hasObject() {
+		return decoder.hasObject();
+	}
+
+	/**
+		Returns the next received object. Throws SerializerEndOfBufferException if it isn't received completely
+	 */
+	public <T> T readObject() {
+		return decoder.readObject();
+	}
+
+	/**
+		Returns the next received object of the class. Throws SerializerEndOfBufferException if it isn't received completely
+	 */
+	public <T> T readObject(Class<T> objectClass) {
+		return decoder.readObject(objectClass);
+	}
+
+	/**
+		Encodes the object after the pending ones. It's written to the channel by flush()
+	 */
+	public <T> void send(T object) {
+		output.writeObject(object);
+	}
+
+	/**
+		Encodes a null instance of the class after the pending objects
+	 */
+	public <T> void sendNull(Class<T> objectClass) {
+		output.writeNull(objectClass);
+	}
+
+	/**
+		Writes as much of the pending data as the channel takes. Returns true if nothing is pending anymore
+	 */
+	public boolean flush() throws IOException {
+		if (hasPending()) {
+			sent += (int) output.writeTo(channel, sent);
+		}
+		if (hasPending()) {
+			return false;
+		}
+		output.reset(); // Everything is written, the chunks are reused
+		sent = 0;
+		return true;
+	}
+
+	/**
+		Returns true if some encoded objects aren't written to the channel yet
+	 */
+	public boolean hasPending() {
+		return sent < output.size();
+	}
+
+	/**
+		Returns the bytes that aren't written to the channel yet. Stop sending to a slow peer when it's too large
+	 */
+	public int pending() {
+		return output.size() - sent;
+	}
+}
@@ -0,0 +1,35 @@
+package org.karma.serialization;
+
+import java.util.zip.DataFormatException;
+
+/**
+ *  Compression of independent blocks, used by SerializationCompressor and SerializationDecompressor.
+ *  A block is decoded without the blocks before it. Instances reuse their tables and buffers, so they aren't thread-safe:
+ *  every compressor and decompressor needs its own.
+ */
+public interface SerializationCompression {
+
+	/**
+		Compresses the bytes into the target. Returns the compressed length, or -1 if it doesn't fit into targetLength
+	 */
+	int compress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int targetLength);
+
+	/**
+		Decompresses the block into the target, it must decode to exactly rawLength bytes
+	 */
+	void decompress(byte[] source, int sourceOffset, int length, byte[] target, int targetOffset, int rawLength) throws DataFormatException;
+
+	/**
+		Returns a fast LZ77 compression, the format is close to LZ4 blocks
+	 */
+	static SerializationCompression lz() {
+		return new LzCompression();
+	}
+
+	/**
+		Returns java.util.zip deflate without the zlib header, the level is from Deflater.BEST_SPEED to Deflater.BEST_COMPRESSION
+	 */
+	static SerializationCompression deflate(int level) {
+		return new DeflateCompression(level);
+	}
+}
@@ -0,0 +1,104 @@
+package org.karma.serialization;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ *  Channel that compresses the bytes in independent blocks and writes them to a blocking channel.
+ *  A block is the raw length, the stored length and the stored bytes. The stored length equals the raw length if the block didn't compress,
+ *  then the bytes are stored as they are. Lengths are big-endian ints.
+ *  The buffers are allocated once, reset() points the compressor at another channel for the next message.
+ */
+public final class SerializationCompressor implements WritableByteChannel, Flushable {
+	public static final int MAX_BLOCK_SIZE = 1 << 24;
+	static final int HEADER_SIZE = 2 * Integer.BYTES;
+
+	private final SerializationCompression compression;
+	private final byte[] block;
+	private final ByteBuffer stored; // The header and the stored bytes of a block
+	private int blockLength;
+	private WritableByteChannel channel;
+	private Flushable flushable; // The stream under the channel, or null
+
+	SerializationCompressor(SerializationCompression compression, int blockSize, WritableByteChannel channel, Flushable flushable) {
+		this.compression = compression;
+		this.block = new byte[blockSize];
+		this.stored = ByteBuffer.allocate(HEADER_SIZE + blockSize);
+		this.channel = channel;
+		this.flushable = flushable;
+	}
+
+	/**
+		Points the compressor at the channel. Bytes that aren't flushed are dropped
+	 */
+	public SerializationCompressor reset(WritableByteChannel channel) {
+		this.channel = channel;
+		this.flushable = null;
+		this.blockLength = 0;
+		return this;
+	}
+
+	@Override
+	public int write(ByteBuffer source) throws IOException {
+		var written = source.remaining();
+		while (source.hasRemaining()) {
+			var length = Math.min(source.remaining(), block.length - blockLength);
+			source.get(block, blockLength, length);
+			blockLength += length;
+			if (blockLength == block.length) {
+				writeBlock();
+			}
+		}
+		return written;
+	}
+
+	/**
+		Compresses the block and writes it. A block that doesn't get smaller is stored as it is
+	 */
+	private void writeBlock() throws IOException {
+		if (blockLength == 0) {
+			return;
+		}
+		var storedBytes = stored.array();
+		var storedLength = compression.compress(block, 0, blockLength, storedBytes, HEADER_SIZE, blockLength - 1);
+		if (storedLength < 0) {
+			System.arraycopy(block, 0, storedBytes, HEADER_SIZE, blockLength);
+			storedLength = blockLength;
+		}
+		stored.clear().putInt(0, blockLength).putInt(Integer.BYTES, storedLength).limit(HEADER_SIZE + storedLength);
+		while (stored.hasRemaining()) {
+			channel.write(stored);
+		}
+		blockLength = 0;
+	}
+
+	/**
+		Writes the bytes of the unfinished block as a shorter block, then flushes the stream under the channel
+	 */
+	@Override
+	public void flush() throws IOException {
+		writeBlock();
+		if (flushable != null) {
+			flushable.flush();
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	/**
+		Writes the unfinished block and closes the channel
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+}
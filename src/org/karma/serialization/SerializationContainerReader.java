@@ -0,0 +1,230 @@
+package org.karma.serialization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+
+import static org.karma.serialization.SerializationContainerWriter.*;
+
+/**
+ *  Reads the blocks of a container written by SerializationContainerWriter.
+ *  Blocks are found with the index at the end of file, or by scanning the block headers if the file doesn't have a valid index.
+ *  readBlock() verifies the checksum and returns an input over the objects of the block. It can be called from many threads at once,
+ *  so blocks can be decoded in parallel, and a corrupted block is skipped without reading the blocks after it again.
+ */
+public final class SerializationContainerReader implements AutoCloseable {
+	private final FileChannel channel;
+	private final ByteOrder order;
+	private final SerializationFormat format;
+	private final byte compression;
+	private final ThreadLocal<SerializationCompression> compressions; // Every thread needs its own tables
+	private final boolean indexed;
+	private long[] blockOffsets;
+	private int[] blockObjects;
+	private int blockCount;
+
+	SerializationContainerReader(FileChannel channel) throws IOException {
+		this.channel = channel;
+		var header = read(0, HEADER_SIZE);
+		if (header == null || header.getInt() != MAGIC) {
+			throw new SerializerCorruptedBlockException("The file isn't a serialization container");
+		}
+		var version = header.getShort();
+		if (version != VERSION) {
+			throw new SerializerCorruptedBlockException(String.format("Unsupported container version %s", version));
+		}
+		this.order = header.get() == 1 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		var formatIndex = header.get();
+		this.compression = header.get();
+		if (formatIndex < 0 || formatIndex >= SerializationFormat.values().length || compression < NO_COMPRESSION || compression > DEFLATE_COMPRESSION) {
+			throw new SerializerCorruptedBlockException("Malformed container header");
+		}
+		this.format = SerializationFormat.values()[formatIndex];
+		this.compressions = ThreadLocal.withInitial(() -> compression == LZ_COMPRESSION ? SerializationCompression.lz() : SerializationCompression.deflate(0));
+		this.indexed = readIndex();
+		if (!indexed) {
+			scanBlocks();
+		}
+	}
+
+	/**
+		Reads the index from the end of file. Returns false if there's no valid index
+	 */
+	private boolean readIndex() throws IOException {
+		var size = channel.size();
+		if (size < HEADER_SIZE + TRAILER_SIZE) {
+			return false;
+		}
+		var trailer = read(size - TRAILER_SIZE, TRAILER_SIZE);
+		var count = trailer.getInt();
+		var indexOffset = trailer.getLong();
+		var indexCrc = trailer.getInt();
+		if (trailer.getInt() != MAGIC || count < 0 || count > (Integer.MAX_VALUE - TRAILER_SIZE) / INDEX_ENTRY_SIZE || indexOffset < HEADER_SIZE || indexOffset + (long) count * INDEX_ENTRY_SIZE != size - TRAILER_SIZE) {
+			return false;
+		}
+		var index = read(indexOffset, count * INDEX_ENTRY_SIZE);
+		var crc = new CRC32C();
+		crc.update(index.array(), 0, count * INDEX_ENTRY_SIZE);
+		if ((int) crc.getValue() != indexCrc) {
+			return false;
+		}
+		blockOffsets = new long[count];
+		blockObjects = new int[count];
+		for (int i = 0; i < count; i++) {
+			blockOffsets[i] = index.getLong();
+			blockObjects[i] = index.getInt();
+		}
+		blockCount = count;
+		return true;
+	}
+
+	/**
+		Finds the blocks by their headers, up to the first block that is cut off by the end of file
+	 */
+	private void scanBlocks() throws IOException {
+		blockOffsets = new long[16];
+		blockObjects = new int[16];
+		var size = channel.size();
+		var position = (long) HEADER_SIZE;
+		while (position + BLOCK_HEADER_SIZE <= size) {
+			var header = read(position, BLOCK_HEADER_SIZE);
+			if (!isValidHeader(header)) {
+				break;
+			}
+			var storedLength = header.getInt(0);
+			var objects = header.getInt(2 * Integer.BYTES);
+			if (position + BLOCK_HEADER_SIZE + storedLength > size) {
+				break;
+			}
+			if (blockCount == blockOffsets.length) {
+				blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+				blockObjects = Arrays.copyOf(blockObjects, blockCount * 2);
+			}
+			blockOffsets[blockCount] = position;
+			blockObjects[blockCount++] = objects;
+			position += BLOCK_HEADER_SIZE + storedLength;
+		}
+	}
+
+	/**
+		Returns true if the checksum of the block header matches and its lengths are in the limits, then the lengths can be allocated
+	 */
+	private static boolean isValidHeader(ByteBuffer header) {
+		var crc = new CRC32C();
+		crc.update(header.array(), 0, BLOCK_HEADER_SIZE - Integer.BYTES);
+		var storedLength = header.getInt(0);
+		var rawLength = header.getInt(Integer.BYTES);
+		var objects = header.getInt(2 * Integer.BYTES);
+		return (int) crc.getValue() == header.getInt(BLOCK_HEADER_SIZE - Integer.BYTES)
+				&& storedLength >= 0 && storedLength <= rawLength && rawLength <= SerializationCompressor.MAX_BLOCK_SIZE && objects >= 0;
+	}
+
+	/**
+		Returns the bytes at the position, or null if the file ends before them
+	 */
+	private ByteBuffer read(long position, int length) throws IOException {
+		var buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				return null;
+			}
+		}
+		return buffer.flip();
+	}
+
+	/**
+		Returns the byte order of numbers
+	 */
+	public ByteOrder order() {
+		return order;
+	}
+
+	/**
+		Returns the encoding of numbers and object headers
+	 */
+	public SerializationFormat format() {
+		return format;
+	}
+
+	/**
+		Returns false if the file doesn't have a valid index and the blocks were found by scanning
+	 */
+	public boolean isIndexed() {
+		return indexed;
+	}
+
+	/**
+		Returns how many blocks are in the file
+	 */
+	public int blockCount() {
+		return blockCount;
+	}
+
+	/**
+		Returns how many top-level objects are in the block
+	 */
+	public int objectCount(int block) {
+		return blockObjects[checkBlock(block)];
+	}
+
+	/**
+		Returns the file offset of the block header
+	 */
+	public long blockOffset(int block) {
+		return blockOffsets[checkBlock(block)];
+	}
+
+	private int checkBlock(int block) {
+		if (block < 0 || block >= blockCount) {
+			throw new IndexOutOfBoundsException(String.format("Block %s is out of container (%s blocks)", block, blockCount));
+		}
+		return block;
+	}
+
+	/**
+		Reads and verifies the block, returns an input over its objects with the byte order and format of the container.
+		Throws SerializerCorruptedBlockException if a checksum doesn't match or the block can't be decompressed.
+		The header is verified before the block is read, so a corrupted length is never allocated
+	 */
+	public SerializationInput readBlock(int block) throws IOException {
+		var offset = blockOffset(block);
+		var header = read(offset, BLOCK_HEADER_SIZE);
+		if (header == null) {
+			throw new SerializerCorruptedBlockException(String.format("Block %s is cut off", block));
+		}
+		if (!isValidHeader(header) || header.getInt(2 * Integer.BYTES) != blockObjects[block]) {
+			throw new SerializerCorruptedBlockException(String.format("Malformed header of block %s", block));
+		}
+		var storedLength = header.getInt(0);
+		var rawLength = header.getInt(Integer.BYTES);
+		var blockCrc = header.getInt(3 * Integer.BYTES);
+		var stored = read(offset + BLOCK_HEADER_SIZE, storedLength);
+		if (stored == null) {
+			throw new SerializerCorruptedBlockException(String.format("Block %s is cut off", block));
+		}
+		var crc = new CRC32C();
+		crc.update(stored.array(), 0, storedLength);
+		if ((int) crc.getValue() != blockCrc) {
+			throw new SerializerCorruptedBlockException(String.format("Checksum of block %s doesn't match", block));
+		}
+		var data = stored.array();
+		if (storedLength != rawLength) {
+			data = new byte[rawLength];
+			try {
+				compressions.get().decompress(stored.array(), 0, storedLength, data, 0, rawLength);
+			} catch (DataFormatException e) {
+				throw new SerializerCorruptedBlockException(String.format("Block %s can't be decompressed", block), e);
+			}
+		}
+		return new SerializationInput(data).order(order).format(format);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,238 @@
+package org.karma.serialization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ *  Writes top-level objects into a container: a file header, blocks of objects and an index of the blocks.
+ *  A block is a separate SerializationInput data with its own end of data mark, so blocks are read, verified and decoded on their own.
+ *
+ *  The header is the magic number, the version, the byte order, the format and the compression of blocks.
+ *  A block is its stored length, raw length, number of objects, CRC32C of the stored bytes, CRC32C of these four numbers
+ *  and the stored bytes. The header is verified on its own, so a corrupted length is found before a buffer is allocated for it.
+ *  The raw length of a block, with the end of data mark, is at most SerializationCompressor.MAX_BLOCK_SIZE.
+ *  The index at the end is the offset and the number of objects of every block, then the number of blocks,
+ *  the offset of the index, CRC32C of the index entries and the magic number. Container numbers are big-endian.
+ *  A file without the index (the writer wasn't closed) is read by scanning the block headers.
+ */
+public final class SerializationContainerWriter implements AutoCloseable {
+	static final int MAGIC = 0x51534346; // QSCF
+	static final short VERSION = 1;
+	static final int HEADER_SIZE = 12;
+	static final int BLOCK_HEADER_SIZE = 5 * Integer.BYTES;
+	static final int INDEX_ENTRY_SIZE = Long.BYTES + Integer.BYTES;
+	static final int TRAILER_SIZE = Integer.BYTES + Long.BYTES + 2 * Integer.BYTES;
+	static final byte NO_COMPRESSION = 0;
+	static final byte LZ_COMPRESSION = 1;
+	static final byte DEFLATE_COMPRESSION = 2;
+
+	private final WritableByteChannel channel;
+	private final int blockSize;
+	private final SerializationOutput output = new SerializationOutput(QuickSerializer.CHUNK_POOL); // Objects of the current block
+	private final CRC32C crc = new CRC32C();
+	private SerializationCompression compression;
+	private byte[] raw = QuickSerializer.EMPTY; // Data of the block with the end of data mark
+	private ByteBuffer stored = ByteBuffer.allocate(0); // Header and stored bytes of the block
+	private int objects; // Objects in the current block
+	private long position; // Bytes written to the channel
+	private long[] blockOffsets = new long[16];
+	private int[] blockObjects = new int[16];
+	private int blockCount;
+
+	SerializationContainerWriter(WritableByteChannel channel, int blockSize) {
+		this.channel = channel;
+		this.blockSize = blockSize;
+	}
+
+	/**
+		Set the byte order of numbers. It can't be changed after the first object
+	 */
+	public SerializationContainerWriter order(ByteOrder order) {
+		checkNotStarted();
+		output.order(order);
+		return this;
+	}
+
+	/**
+		Set the encoding of numbers and object headers. It can't be changed after the first object
+	 */
+	public SerializationContainerWriter format(SerializationFormat format) {
+		checkNotStarted();
+		output.format(format);
+		return this;
+	}
+
+	/**
+		Compress the blocks with SerializationCompression.lz() or deflate(), null writes them as they are. It can't be changed after the first object
+	 */
+	public SerializationContainerWriter compression(SerializationCompression compression) {
+		checkNotStarted();
+		if (compression != null && !(compression instanceof LzCompression) && !(compression instanceof DeflateCompression)) {
+			throw new IllegalArgumentException("The container header can store only lz() and deflate() compression");
+		}
+		this.compression = compression;
+		return this;
+	}
+
+	private void checkNotStarted() {
+		if (position != 0 || objects != 0) {
+			throw new IllegalStateException("The container is already started");
+		}
+	}
+
+	/**
+		Write an object, the block is written out when it's filled.
+		Throws SerializerObjectWriteException if the object alone is larger than a block can be, then it isn't written
+	 */
+	public <T> void writeObject(T object) throws IOException {
+		var objectStart = output.size();
+		try {
+			output.writeObject(object);
+		} finally {
+			objects++; // A failed object is written as a null instance
+		}
+		endObject(objectStart);
+	}
+
+	/**
+		Write a null instance of the class
+	 */
+	public <T> void writeNull(Class<T> objectClass) throws IOException {
+		var objectStart = output.size();
+		output.writeNull(objectClass);
+		objects++;
+		endObject(objectStart);
+	}
+
+	private void endObject(int objectStart) throws IOException {
+		if (output.size() + 1 > SerializationCompressor.MAX_BLOCK_SIZE) {
+			splitBlock(objectStart);
+		}
+		if (output.size() >= blockSize) {
+			flush();
+		}
+	}
+
+	/**
+		The last object doesn't fit into a block with the objects before it. They are written as a block and the object starts the next one
+	 */
+	private void splitBlock(int objectStart) throws IOException {
+		var size = copyOutput();
+		var object = Arrays.copyOfRange(raw, objectStart, size);
+		output.reset();
+		objects--;
+		if (objects > 0) {
+			raw[objectStart] = 0; // End of data mark
+			writeBlock(objectStart + 1);
+		}
+		objects = 0; // The block is written, a later flush() mustn't count its objects again
+		if (object.length + 1 > SerializationCompressor.MAX_BLOCK_SIZE) {
+			throw new SerializerObjectWriteException(String.format("Object of %s bytes doesn't fit into a block of %s bytes", object.length, SerializationCompressor.MAX_BLOCK_SIZE));
+		}
+		output.writeBytes(object, 0, object.length);
+		objects = 1;
+	}
+
+	/**
+		Copies the objects of the block into raw and returns their size
+	 */
+	private int copyOutput() {
+		var size = output.size();
+		if (raw.length < size + 1) {
+			raw = new byte[Math.max(size + 1, raw.length * 2)];
+		}
+		output.copyTo(raw, 0);
+		return size;
+	}
+
+	/**
+		Write the objects of the unfinished block as a shorter block
+	 */
+	public void flush() throws IOException {
+		if (position == 0) {
+			writeHeader();
+		}
+		if (objects == 0) {
+			return;
+		}
+		var rawLength = copyOutput() + 1;
+		raw[rawLength - 1] = 0; // End of data mark
+		writeBlock(rawLength);
+		output.reset();
+		objects = 0;
+	}
+
+	/**
+		Writes the objects of raw as a block
+	 */
+	private void writeBlock(int rawLength) throws IOException {
+		if (position == 0) {
+			writeHeader();
+		}
+		if (stored.capacity() < BLOCK_HEADER_SIZE + rawLength) {
+			stored = ByteBuffer.allocate(BLOCK_HEADER_SIZE + Math.max(rawLength, stored.capacity() * 2));
+		}
+		var storedBytes = stored.array();
+		var storedLength = compression == null ? -1 : compression.compress(raw, 0, rawLength, storedBytes, BLOCK_HEADER_SIZE, rawLength - 1);
+		if (storedLength < 0) { // The block didn't get smaller
+			System.arraycopy(raw, 0, storedBytes, BLOCK_HEADER_SIZE, rawLength);
+			storedLength = rawLength;
+		}
+		crc.reset();
+		crc.update(storedBytes, BLOCK_HEADER_SIZE, storedLength);
+		stored.clear().limit(BLOCK_HEADER_SIZE + storedLength);
+		stored.putInt(storedLength).putInt(rawLength).putInt(objects).putInt((int) crc.getValue());
+		crc.reset();
+		crc.update(storedBytes, 0, BLOCK_HEADER_SIZE - Integer.BYTES);
+		stored.putInt((int) crc.getValue()).position(0);
+
+		if (blockCount == blockOffsets.length) {
+			blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+			blockObjects = Arrays.copyOf(blockObjects, blockCount * 2);
+		}
+		blockOffsets[blockCount] = position;
+		blockObjects[blockCount++] = objects;
+		write(stored);
+	}
+
+	private void writeHeader() throws IOException {
+		var header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putShort(VERSION);
+		header.put((byte) (output.order() == ByteOrder.LITTLE_ENDIAN ? 1 : 0));
+		header.put((byte) output.format().ordinal());
+		header.put(compression == null ? NO_COMPRESSION : compression instanceof LzCompression ? LZ_COMPRESSION : DEFLATE_COMPRESSION);
+		write(header.clear()); // The last 3 bytes are reserved
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		position += buffer.remaining();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+		Write the unfinished block and the index, then close the channel
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+			var index = ByteBuffer.allocate(blockCount * INDEX_ENTRY_SIZE + TRAILER_SIZE);
+			for (int i = 0; i < blockCount; i++) {
+				index.putLong(blockOffsets[i]).putInt(blockObjects[i]);
+			}
+			crc.reset();
+			crc.update(index.array(), 0, blockCount * INDEX_ENTRY_SIZE);
+			index.putInt(blockCount).putLong(position).putInt((int) crc.getValue()).putInt(MAGIC);
+			write(index.flip());
+		} finally {
+			output.reset();
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package org.karma.serialization;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ *  Decodes top-level objects from data that arrives in parts, for example from non-blocking reads.
+ *  Feed the bytes as they come and take the objects while needed() returns 0. A partial object is reported by needed()
+ *  as the least number of bytes that must be fed before it, nothing is thrown and nothing is parsed again:
+ *  the parsed part of the object header is kept between feeds, so decoding is linear in the received bytes.
+ *  The data has no end of data mark, and references can't be tracked. Not thread-safe.
+ *  An object longer than maxObjectLength() is malformed data, it's reported as soon as its header is fed and nothing is allocated for it.
+ */
+public final class SerializationDecoder {
+	public static final int DEFAULT_MAX_OBJECT_LENGTH = 1 << 24;
+	private static final int STANDARD_HEADER_SIZE = Short.BYTES + Integer.BYTES;
+	private static final int MAX_VAR_NUMBER_SIZE = 10;
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	private final SerializationInput input = new SerializationInput(QuickSerializer.EMPTY);
+	private byte[] buffer;
+	private int start; // Start of the next object in buffer
+	private int end; // End of fed data
+	private boolean littleEndian;
+	private boolean compact;
+	private int headerParsed; // Bytes of the next object header that are parsed
+	private int varNumbers; // LEB128 numbers of a COMPACT header that are parsed
+	private int varNumberBytes; // Bytes of the number that is being parsed
+	private int varNumber; // The size that is being parsed from a COMPACT header
+	private long objectLength = -1; // Length of the next object with its header, or -1 if the header isn't parsed yet
+	private int maxObjectLength = DEFAULT_MAX_OBJECT_LENGTH;
+
+	SerializationDecoder(int bufferSize) {
+		this.buffer = new byte[bufferSize + 1];
+	}
+
+	/**
+		Set the byte order of numbers. The header of a partial object is parsed again
+	 */
+	public SerializationDecoder order(ByteOrder order) {
+		this.littleEndian = order == ByteOrder.LITTLE_ENDIAN;
+		input.order(order);
+		resetHeader();
+		return this;
+	}
+
+	/**
+		Set the encoding of numbers and object headers. The header of a partial object is parsed again
+	 */
+	public SerializationDecoder format(SerializationFormat format) {
+		this.compact = format == SerializationFormat.COMPACT;
+		input.format(format);
+		resetHeader();
+		return this;
+	}
+
+	/**
+		Set the largest length of an object with its header. A longer one is reported by needed()
+	 */
+	public SerializationDecoder maxObjectLength(int maxObjectLength) {
+		if (maxObjectLength <= 0 || maxObjectLength >= MAX_ARRAY_SIZE) {
+			throw new IllegalArgumentException(String.format("Max object length must be from 1 to %s: %s", MAX_ARRAY_SIZE - 1, maxObjectLength));
+		}
+		this.maxObjectLength = maxObjectLength;
+		return this;
+	}
+
+	/**
+		Returns the largest length of an object with its header
+	 */
+	public int maxObjectLength() {
+		return maxObjectLength;
+	}
+
+	private void resetHeader() {
+		headerParsed = varNumbers = varNumberBytes = varNumber = 0;
+		objectLength = -1;
+	}
+
+	/**
+		Drops the fed bytes, the decoder starts over with the next feed
+	 */
+	public SerializationDecoder reset() {
+		start = end = 0;
+		resetHeader();
+		return this;
+	}
+
+	/**
+		Adds the bytes after the fed ones
+	 */
+	public SerializationDecoder feed(byte[] bytes, int offset, int length) {
+		ensureRoom(length);
+		System.arraycopy(bytes, offset, buffer, end, length);
+		end += length;
+		return this;
+	}
+
+	/**
+		Adds the bytes from the position to the limit of ByteBuffer and moves its position to the limit
+	 */
+	public SerializationDecoder feed(ByteBuffer bytes) {
+		var length = bytes.remaining();
+		ensureRoom(length);
+		bytes.get(buffer, end, length);
+		end += length;
+		return this;
+	}
+
+	/**
+		Reads the bytes the channel has right into the buffer, with room for at least the rest of the next object.
+		Returns how many bytes are read, or -1 at the end of stream.
+		Throws SerializerObjectLoadException before the buffer grows if the next object is longer than maxObjectLength()
+	 */
+	public int receive(ReadableByteChannel channel) throws IOException {
+		ensureRoom(Math.max(needed(), 1));
+		var read = channel.read(ByteBuffer.wrap(buffer, end, buffer.length - 1 - end));
+		if (read > 0) {
+			end += read;
+		}
+		return read;
+	}
+
+	/**
+		Makes room for the bytes after the fed ones. The unread bytes are moved to the start if they take at most half of the buffer,
+		otherwise the buffer grows, so every byte is moved a constant number of times
+	 */
+	private void ensureRoom(int length) {
+		if (buffer.length - 1 - end >= length) {
+			return;
+		}
+		var unread = end - start;
+		var capacity = (long) unread + length + 1;
+		if (capacity > MAX_ARRAY_SIZE) {
+			throw new SerializerEndOfBufferException(String.format("Decoder buffer can't hold %s bytes", capacity));
+		}
+		if (capacity <= buffer.length && unread <= buffer.length / 2) {
+			System.arraycopy(buffer, start, buffer, 0, unread);
+		} else {
+			var target = new byte[(int) Math.min(Math.max(capacity, 2L * buffer.length), MAX_ARRAY_SIZE)];
+			System.arraycopy(buffer, start, target, 0, unread);
+			buffer = target;
+		}
+		start = 0;
+		end = unread;
+	}
+
+	/**
+		Returns 0 if the next object is fed completely and readObject() returns it,
+		otherwise the least number of bytes that must be fed before it is. More bytes may be asked after them,
+		until the header of the object is complete and its size is known.
+		Throws SerializerObjectLoadException if the header tells a length above maxObjectLength(), until reset()
+	 */
+	public int needed() {
+		if (objectLength < 0 && !parseHeader()) {
+			if (!compact) {
+				return STANDARD_HEADER_SIZE - headerParsed;
+			}
+			return varNumbers == 0 ? 2 : 1; // The rest of the signature and at least one byte of the size
+		}
+		if (objectLength > maxObjectLength) {
+			throw new SerializerObjectLoadException(String.format("Object of %s bytes, the limit is %s", objectLength, maxObjectLength));
+		}
+		return (int) Math.max(objectLength - (end - start), 0);
+	}
+
+	/**
+		Returns true if the next object is fed completely
+	 */
+	public boolean hasObject() {
+		return needed() == 0;
+	}
+
+	/**
+		Parses the header bytes that weren't parsed before. Returns true if the header is complete and objectLength is known
+	 */
+	private boolean parseHeader() {
+		if (!compact) {
+			if (end - start < STANDARD_HEADER_SIZE) {
+				headerParsed = end - start;
+				return false;
+			}
+			var index = start + Short.BYTES;
+			var size = (buffer[index] & 0xff) << 24 | (buffer[index + 1] & 0xff) << 16 | (buffer[index + 2] & 0xff) << 8 | buffer[index + 3] & 0xff;
+			setObjectLength(STANDARD_HEADER_SIZE, littleEndian ? Integer.reverseBytes(size) : size);
+			return true;
+		}
+		while (start + headerParsed < end) {
+			var b = buffer[start + headerParsed++];
+			if (varNumbers == 1 && varNumberBytes < 5) {
+				varNumber |= (b & 0x7f) << 7 * varNumberBytes;
+			}
+			if (b >= 0 || ++varNumberBytes == MAX_VAR_NUMBER_SIZE) { // A longer number is malformed, readObject() reports it
+				varNumberBytes = 0;
+				if (++varNumbers == 2) {
+					setObjectLength(headerParsed, (varNumber >>> 1) ^ -(varNumber & 1));
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void setObjectLength(int headerSize, int size) {
+		objectLength = headerSize + (long) Math.max(size, 0); // Null instances and back-references have no data
+	}
+
+	/**
+		Returns the next object. Throws SerializerEndOfBufferException if it isn't fed completely, check needed() first
+	 */
+	public <T> T readObject() {
+		var length = prepareObject();
+		try {
+			return input.readObject();
+		} finally {
+			nextObject(length);
+		}
+	}
+
+	/**
+		Returns the next object of the class. Throws SerializerEndOfBufferException if it isn't fed completely, check needed() first
+	 */
+	public <T> T readObject(Class<T> objectClass) {
+		var length = prepareObject();
+		try {
+			return input.readObject(objectClass);
+		} finally {
+			nextObject(length);
+		}
+	}
+
+	/**
+		Points the input at the next object. The byte after the object stands for the end of data mark, the buffer always has room for it
+	 */
+	private int prepareObject() {
+		if (needed() > 0) {
+			throw new SerializerEndOfBufferException("The object isn't fed completely");
+		}
+		var length = (int) objectLength;
+		input.reset(ByteBuffer.wrap(buffer, start, length + 1));
+		return length;
+	}
+
+	private void nextObject(int length) {
+		start += length;
+		if (start == end) {
+			start = end = 0;
+		}
+		resetHeader();
+	}
+
+	/**
+		Returns the number of fed bytes that aren't read yet
+	 */
+	public int buffered() {
+		return end - start;
+	}
+}
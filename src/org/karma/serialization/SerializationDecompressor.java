@@ -0,0 +1,117 @@
+package org.karma.serialization;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.ZipException;
+
+import static org.karma.serialization.SerializationCompressor.HEADER_SIZE;
+import static org.karma.serialization.SerializationCompressor.MAX_BLOCK_SIZE;
+
+/**
+ *  Channel that reads the blocks written by SerializationCompressor from a blocking channel and returns the decompressed bytes.
+ *  The buffers grow to the largest block and are kept, reset() points the decompressor at another channel for the next message.
+ */
+public final class SerializationDecompressor implements ReadableByteChannel {
+	private final SerializationCompression compression;
+	private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+	private ByteBuffer stored = ByteBuffer.allocate(0);
+	private byte[] block = QuickSerializer.EMPTY;
+	private ByteBuffer blockBuffer = ByteBuffer.wrap(block);
+	private int blockPosition;
+	private int blockLength;
+	private ReadableByteChannel channel;
+
+	SerializationDecompressor(SerializationCompression compression, ReadableByteChannel channel) {
+		this.compression = compression;
+		this.channel = channel;
+	}
+
+	/**
+		Points the decompressor at the channel. Bytes of the current block that aren't read are dropped
+	 */
+	public SerializationDecompressor reset(ReadableByteChannel channel) {
+		this.channel = channel;
+		this.blockPosition = this.blockLength = 0;
+		return this;
+	}
+
+	@Override
+	public int read(ByteBuffer target) throws IOException {
+		while (blockPosition == blockLength) {
+			if (!readBlock()) {
+				return -1;
+			}
+		}
+		var length = Math.min(target.remaining(), blockLength - blockPosition);
+		target.put(block, blockPosition, length);
+		blockPosition += length;
+		return length;
+	}
+
+	/**
+		Reads and decompresses the next block. Returns false at the end of stream
+	 */
+	private boolean readBlock() throws IOException {
+		header.clear();
+		if (!readFully(header, true)) {
+			return false;
+		}
+		var rawLength = header.getInt(0);
+		var storedLength = header.getInt(Integer.BYTES);
+		if (rawLength < 0 || rawLength > MAX_BLOCK_SIZE || storedLength < 0 || storedLength > rawLength) {
+			throw new ZipException(String.format("Malformed block of %s bytes stored in %s bytes", rawLength, storedLength));
+		}
+		if (block.length < rawLength) {
+			block = new byte[Math.max(rawLength, block.length * 2)];
+			blockBuffer = ByteBuffer.wrap(block);
+		}
+		if (storedLength == rawLength) { // The block is stored as it is
+			readFully(blockBuffer.clear().limit(rawLength), false);
+		} else {
+			if (stored.capacity() < storedLength) {
+				stored = ByteBuffer.allocate(Math.max(storedLength, stored.capacity() * 2));
+			}
+			stored.clear().limit(storedLength);
+			readFully(stored, false);
+			try {
+				compression.decompress(stored.array(), 0, storedLength, block, 0, rawLength);
+			} catch (DataFormatException e) {
+				var exception = new ZipException(String.format("Malformed block of %s bytes: %s", rawLength, e.getMessage()));
+				exception.initCause(e);
+				throw exception;
+			}
+		}
+		blockPosition = 0;
+		blockLength = rawLength;
+		return true;
+	}
+
+	/**
+		Reads until the buffer is full. Returns false if the stream ends before the first byte and that is allowed
+	 */
+	private boolean readFully(ByteBuffer buffer, boolean endAllowed) throws IOException {
+		var start = buffer.position();
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				if (endAllowed && buffer.position() == start) {
+					return false;
+				}
+				throw new EOFException("Stream ends inside a block");
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,20 @@
+package org.karma.serialization;
+
+/**
+ *  Encoding of numbers and object headers.
+ *  SerializationInput must use the same format as the SerializationOutput that wrote the data.
+ */
+public enum SerializationFormat {
+	/**
+	    Fixed-width numbers. Every object has a 2 bytes signature and a 4 bytes size
+	 */
+	STANDARD,
+	/**
+	    Smaller data for small numbers:
+	    int and long are zigzag LEB128 varints (1 byte for -64..63), char takes 2 bytes,
+	    object signatures are LEB128 varints and object sizes are zigzag varints.
+	    The size width depends on SerializerObject.bytes(): 1 byte up to 63 bytes, 2 bytes up to 8191 bytes.
+	    Other types and bulk arrays are the same as in STANDARD
+	 */
+	COMPACT
+}
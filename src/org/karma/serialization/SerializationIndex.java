@@ -0,0 +1,118 @@
+package org.karma.serialization;
+
+import java.util.Arrays;
+
+/**
+ *  Offsets and signatures of the top-level objects, a table of contents for random access.
+ *  SerializationOutput writes it at the end of data with writeIndex(), SerializationInput reads it with readIndex()
+ *  or builds it with buildIndex() if the data doesn't have one. Offsets start at the beginning of data.
+ *  The index is an object with a reserved signature, so a sequential reader gets it from readObject() as the last object.
+ */
+public final class SerializationIndex {
+	public static final short SIGNATURE = 0x11;
+	static final int MAGIC = 0x51494458; // After the index, so it's found from the end of data
+
+	private int[] offsets;
+	private short[] signatures;
+	private int count;
+	int indexOffset = -1; // Offset of the index object itself, written after the entries
+
+	SerializationIndex() {
+		this(new int[16], new short[16], 0);
+	}
+
+	private SerializationIndex(int[] offsets, short[] signatures, int count) {
+		this.offsets = offsets;
+		this.signatures = signatures;
+		this.count = count;
+	}
+
+	void add(int offset, short signature) {
+		if (count == offsets.length) {
+			offsets = Arrays.copyOf(offsets, count * 2);
+			signatures = Arrays.copyOf(signatures, count * 2);
+		}
+		offsets[count] = offset;
+		signatures[count++] = signature;
+	}
+
+	void clear() {
+		count = 0;
+	}
+
+	/**
+		Returns how many objects are indexed
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+		Returns the offset of the object header
+	 */
+	public int offset(int object) {
+		return offsets[checkObject(object)];
+	}
+
+	/**
+		Returns the signature of the object
+	 */
+	public short signature(int object) {
+		return signatures[checkObject(object)];
+	}
+
+	/**
+		Returns the offsets of the objects with the signature in the data order
+	 */
+	public int[] offsetsOf(short signature) {
+		var found = new int[count];
+		var foundCount = 0;
+		for (int i = 0; i < count; i++) {
+			if (signatures[i] == signature) {
+				found[foundCount++] = offsets[i];
+			}
+		}
+		return Arrays.copyOf(found, foundCount);
+	}
+
+	private int checkObject(int object) {
+		if (object < 0 || object >= count) {
+			throw new IndexOutOfBoundsException(String.format("Object %s is out of index (%s objects)", object, count));
+		}
+		return object;
+	}
+
+	/**
+		Entries are bulk arrays, they have a fixed width in every format.
+		The last 8 bytes are the offset of the index object and the magic number
+	 */
+	@SerializerObject(signature = SIGNATURE, bytes = Integer.MAX_VALUE)
+	static final class IndexSerializer implements Serializer<SerializationIndex> {
+
+		@Override
+		public void serialize(SerializationOutput data, SerializationIndex index) {
+			data.writeInt(index.count);
+			data.writeInts(index.offsets, 0, index.count);
+			data.writeShorts(index.signatures, 0, index.count);
+			data.writeInts(new int[]{index.indexOffset, MAGIC}, 0, 2);
+		}
+
+		@Override
+		public SerializationIndex deserialize(SerializationInput data) {
+			var count = data.readInt();
+			if (count < 0 || (long) count * 6 > data.available()) {
+				throw new SerializerObjectLoadException(String.format("Malformed index of %s objects", count));
+			}
+			var offsets = new int[count];
+			var signatures = new short[count];
+			data.readInts(offsets, 0, count);
+			data.readShorts(signatures, 0, count);
+			var index = new SerializationIndex(offsets, signatures, count);
+			var footer = new int[2]; // The offset of the index object and the magic number
+			data.readInts(footer, 0, 2);
+			index.indexOffset = footer[0];
+			return index;
+		}
+
+	}
+}
@@ -1,17 +1,242 @@
 package org.karma.serialization;
 
 import org.karma.serialization.QuickSerializer.RuntimeSerializer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
 import static org.karma.serialization.QuickSerializer.*;
-import static java.lang.String.format;
 
 public class SerializationInput {
-	private final byte[] buffer;
-	private final int bufferSize;
-	private int bufferPosition = 0;
+	private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	private byte[] buffer;
+	private ByteBuffer byteBuffer; // Used instead of buffer if the data is in a ByteBuffer without array (a direct or read-only one)
+	private int bufferSize; // End of readable data in buffer (exclusive)
+	private int bufferPosition;
+	private boolean littleEndian;
+	private boolean compact;
+	private SerializationReferences.Read references; // Null if references aren't tracked. Shared with sub-buffers
+	private int bufferOrigin; // Index of the first byte of data. Offsets of back-references start there
+	private int viewStart; // Index of the first byte this input may read, the start of the object data for a sub-buffer
+	private int objectOffset = -1; // Offset of the object that is read from this sub-buffer
 
 	SerializationInput(byte[] bytes) {
+		this.buffer = bytes;
 		this.bufferSize = bytes.length;
+	}
+
+	SerializationInput(ByteBuffer bytes) {
+		reset(bytes);
+	}
+
+	/**
+		Creates a view over [from, to) of the parent bytes with the same settings. Nothing is copied
+	 */
+	private SerializationInput(SerializationInput parent, int from, int to) {
+		this.buffer = parent.buffer;
+		this.byteBuffer = parent.byteBuffer;
+		this.bufferPosition = from;
+		this.bufferSize = to;
+		this.littleEndian = parent.littleEndian;
+		this.compact = parent.compact;
+		this.references = parent.references;
+		this.bufferOrigin = parent.bufferOrigin;
+		this.viewStart = from;
+	}
+
+	/**
+		Set the byte order of numbers. It must be the same as the order used by SerializationOutput.
+		BIG_ENDIAN is the default, little-endian hosts read LITTLE_ENDIAN data without swapping bytes
+	 */
+	public SerializationInput order(ByteOrder order) {
+		this.littleEndian = order == ByteOrder.LITTLE_ENDIAN;
+		return this;
+	}
+
+	/**
+		Returns the byte order of numbers
+	 */
+	public ByteOrder order() {
+		return littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+	}
+
+	/**
+		Set the encoding of numbers and object headers. It must be the same as the format used by SerializationOutput
+	 */
+	public SerializationInput format(SerializationFormat format) {
+		this.compact = format == SerializationFormat.COMPACT;
+		return this;
+	}
+
+	/**
+		Returns the encoding of numbers and object headers
+	 */
+	public SerializationFormat format() {
+		return compact ? SerializationFormat.COMPACT : SerializationFormat.STANDARD;
+	}
+
+	/**
+		Turn reference tracking on or off. It must be the same as in SerializationOutput.
+		Back-references are resolved to the objects that were already read,
+		the objects that were skipped are read when something refers to them
+	 */
+	public SerializationInput trackReferences(boolean track) {
+		if (!track) {
+			references = null;
+		} else if (references == null) {
+			references = new SerializationReferences.Read();
+		}
+		return this;
+	}
+
+	/**
+		Returns true if references are tracked
+	 */
+	public boolean isTrackingReferences() {
+		return references != null;
+	}
+
+	/**
+		Makes the object that is being read available to back-references before its deserialize() returns.
+		Call it from deserialize() of a mutable object right after it's created, to read cyclic graphs:
+		without it, a reference from inside the object to itself can't be resolved
+	 */
+	public <T> void reference(T object) {
+		if (references == null || objectOffset < 0) {
+			return;
+		}
+		references.put(objectOffset, object);
+	}
+
+	/**
+		Point the input at the new data, so it can be reused without creating a new one
+	 */
+	public void reset(byte[] bytes) {
 		this.buffer = bytes;
+		this.byteBuffer = null;
+		this.bufferPosition = 0;
+		this.bufferSize = bytes.length;
+		this.bufferOrigin = 0;
+		this.viewStart = 0;
+		if (references != null) {
+			references.clear();
+		}
+	}
+
+	/**
+		Point the input at the data from the position to the limit of ByteBuffer. The position and the limit aren't changed.
+		A heap ByteBuffer is read from its array, a direct one is read in place without copying it to the heap
+	 */
+	public void reset(ByteBuffer bytes) {
+		var start = bytes.position();
+		if (bytes.hasArray()) {
+			start += bytes.arrayOffset();
+			this.buffer = bytes.array();
+			this.byteBuffer = null;
+		} else {
+			this.buffer = null;
+			this.byteBuffer = bytes.duplicate().order(ByteOrder.BIG_ENDIAN);
+		}
+		this.bufferPosition = start;
+		this.bufferSize = start + bytes.remaining();
+		this.bufferOrigin = start;
+		this.viewStart = start;
+		if (references != null) {
+			references.clear();
+		}
+	}
+
+	/**
+		Returns a new input over the same data from the start, with the same settings and its own position.
+		Back-references are resolved by each cursor on its own
+	 */
+	SerializationInput cursor() {
+		var cursor = new SerializationInput(this, bufferOrigin, bufferSize);
+		if (references != null) {
+			cursor.references = new SerializationReferences.Read();
+		}
+		return cursor;
+	}
+
+	/**
+		Returns the offset of the next byte from the start of data
+	 */
+	public int position() {
+		return bufferPosition - bufferOrigin;
+	}
+
+	/**
+		Moves to the offset from the start of data. It must be the offset of a value, for example one returned by position().
+		The deserializer of an object can move only inside the data of the object
+	 */
+	public SerializationInput position(int offset) {
+		var index = bufferOrigin + (long) offset;
+		if (offset < 0 || index < viewStart || index >= bufferSize) { // A sub-buffer can't leave its object
+			throw new SerializerEndOfBufferException(String.format("Position out of buffer. Buffer: %s-%s, position: %s", viewStart - bufferOrigin, bufferSize - bufferOrigin, offset));
+		}
+		this.bufferPosition = bufferOrigin + offset;
+		return this;
+	}
+
+	/**
+		Returns the index written at the end of data by SerializationOutput.writeIndex(), or null if there's no index
+	 */
+	public SerializationIndex readIndex() {
+		var footerStart = bufferSize - 2 - 2 * Integer.BYTES; // The footer is followed by the end of object and the end of data marks
+		if (footerStart < viewStart || getInt(footerStart + Integer.BYTES) != SerializationIndex.MAGIC) {
+			return null;
+		}
+		var indexOffset = getInt(footerStart);
+		if (indexOffset < 0 || bufferOrigin + (long) indexOffset < viewStart || bufferOrigin + (long) indexOffset >= footerStart) {
+			return null;
+		}
+		var indexInput = new SerializationInput(this, bufferOrigin + indexOffset, bufferSize);
+		if (indexInput.readSignature() != SerializationIndex.SIGNATURE) {
+			return null;
+		}
+		indexInput.position(indexOffset);
+		return indexInput.readObject(SerializationIndex.class);
+	}
+
+	/**
+		Builds the index of the data from the current position on, reading only the object headers.
+		It's for the data without an index, an index at the end of data isn't included
+	 */
+	public SerializationIndex buildIndex() {
+		var index = new SerializationIndex();
+		var scanner = new SerializationInput(this, bufferPosition, bufferSize);
+		while (scanner.hasAvailable()) {
+			var headerOffset = scanner.position();
+			var signature = scanner.readSignature();
+			if (signature == SerializationIndex.SIGNATURE) {
+				break;
+			}
+			var objectSize = scanner.readSize();
+			if (objectSize > 0) {
+				scanner.skipBytes(objectSize);
+			}
+			index.add(headerOffset, signature);
+		}
+		return index;
+	}
+
+	/**
+		Moves to the object of the index. Use the index from readIndex() or buildIndex() of the same data
+	 */
+	public SerializationInput seekObject(SerializationIndex index, int object) {
+		return position(index.offset(object));
 	}
 
 	/**
@@ -19,22 +244,118 @@ public class SerializationInput {
 	 */
 	private void checkBufferAvail(int bytesNeeded) {
 		var askedBytes = bufferPosition + bytesNeeded;
-		if (askedBytes < bufferSize) {
+		if (askedBytes < bufferSize || fill(bytesNeeded)) {
 			return;
 		}
-		throw new SerializerEndOfBufferException(format("Reached the end of buffer. Buffer size: %s, asked: %s", bufferSize, askedBytes));
+		throw new SerializerEndOfBufferException(String.format("Reached the end of buffer. Buffer size: %s, asked: %s", bufferSize, askedBytes));
 	}
 
 	/**
-		 Returns a number with a special number of bytes
+		Bulk reads check the whole size once. Throws SerializerEndOfBufferException if there's not enough bytes
 	 */
-	private long readNumber(int bytes) {
-		checkBufferAvail(bytes); // Ensure that there's enough bytes
-		var number = (long) (buffer[bufferPosition++] & 0xff) << (bytes - 1) * 8;
-		for (int i = 1; i < bytes; i++) {
-			number |= (long) (buffer[bufferPosition++] & 0xff) << (bytes - 1 - i) * 8;
+	private void checkBulkAvail(long bytesNeeded) {
+		var askedBytes = bufferPosition + bytesNeeded;
+		if (askedBytes < bufferSize || fill(bytesNeeded)) {
+			return;
 		}
-		return number;
+		throw new SerializerEndOfBufferException(String.format("Reached the end of buffer. Buffer size: %s, asked: %s", bufferSize, askedBytes));
+	}
+
+	/**
+		Called when there's not enough bytes. A streaming input reads more data and returns true if there's enough now.
+		Positions may change, the unread bytes are moved by compact()
+	 */
+	boolean fill(long bytesNeeded) {
+		return false;
+	}
+
+	/**
+		Moves the unread bytes to the start of a buffer with room for at least capacity bytes and returns the buffer.
+		A streaming input reads more data after them
+	 */
+	byte[] compact(int capacity) {
+		var unread = bufferSize - bufferPosition;
+		var target = buffer.length >= capacity ? buffer : new byte[(int) Math.min(Math.max(capacity, 2L * buffer.length), MAX_ARRAY_SIZE)];
+		System.arraycopy(buffer, bufferPosition, target, 0, unread);
+		buffer = target;
+		bufferPosition = 0;
+		bufferSize = unread;
+		bufferOrigin = 0;
+		viewStart = 0;
+		return target;
+	}
+
+	/**
+		Adds the bytes that a streaming input has read after the end of data. Returns the unread byte count
+	 */
+	int filled(int bytes) {
+		bufferSize += bytes;
+		return bufferSize - bufferPosition;
+	}
+
+	/**
+		 Numbers at the index in the input byte order. Each one is a single load
+	 */
+	private short getShort(int index) {
+		if (buffer == null) {
+			var number = byteBuffer.getShort(index);
+			return littleEndian ? Short.reverseBytes(number) : number;
+		}
+		return littleEndian ? (short) SHORT_LE.get(buffer, index) : (short) SHORT.get(buffer, index);
+	}
+
+	private int getInt(int index) {
+		if (buffer == null) {
+			var number = byteBuffer.getInt(index);
+			return littleEndian ? Integer.reverseBytes(number) : number;
+		}
+		return littleEndian ? (int) INT_LE.get(buffer, index) : (int) INT.get(buffer, index);
+	}
+
+	private long getLong(int index) {
+		if (buffer == null) {
+			var number = byteBuffer.getLong(index);
+			return littleEndian ? Long.reverseBytes(number) : number;
+		}
+		return littleEndian ? (long) LONG_LE.get(buffer, index) : (long) LONG.get(buffer, index);
+	}
+
+	/**
+		Returns an unsigned LEB128 number: 7 bits per byte, the high bit means that there's one more byte
+	 */
+	private long readVarNumber() {
+		long number = 0;
+		for (int shift = 0; shift < Long.SIZE; shift += 7) {
+			checkBufferAvail(1);
+			var b = getByte(bufferPosition++);
+			number |= (long) (b & 0x7f) << shift;
+			if (b >= 0) {
+				return number;
+			}
+		}
+		throw new SerializerObjectLoadException("Malformed variable-length number");
+	}
+
+	private static int unzigzag(int number) {
+		return (number >>> 1) ^ -(number & 1);
+	}
+
+	private static long unzigzag(long number) {
+		return (number >>> 1) ^ -(number & 1);
+	}
+
+	/**
+		Returns the signature of an object type
+	 */
+	short readSignature() {
+		return compact ? (short) readVarNumber() : readShort();
+	}
+
+	/**
+		Returns the size of an object. A negative size means a null instance
+	 */
+	private int readSize() {
+		return compact ? unzigzag((int) readVarNumber()) : readFixedInt();
 	}
 
 	/**
@@ -60,11 +381,11 @@ public class SerializationInput {
 	}
 
 	/**
-	    Skip object bytes (at least 6)
+	    Skip object bytes (at least 6, at least 2 in COMPACT format)
 	 */
 	public void skipObject() {
-		skipShort();
-		var objectSize = readInt();
+		readSignature();
+		var objectSize = readSize();
 		if (objectSize < 0) // A negative size means a null instance, and this doesn't have data. So we just return
 			return;
 		skipBytes(objectSize);
@@ -74,7 +395,11 @@ public class SerializationInput {
 	    Read 1 byte
 	 */
 	public byte readByte() {
-		return (byte) readNumber(1);
+		checkBufferAvail(1);
+		return getByte(bufferPosition++);
+	}
+	private byte getByte(int index) {
+		return buffer == null ? byteBuffer.get(index) : buffer[index];
 	}
 
 	/**
@@ -88,7 +413,10 @@ public class SerializationInput {
 	    Read 2 bytes
 	 */
 	public short readShort() {
-		return (short) readNumber(2);
+		checkBufferAvail(2);
+		var number = getShort(bufferPosition);
+		bufferPosition += 2;
+		return number;
 	}
 
 	/**
@@ -99,45 +427,67 @@ public class SerializationInput {
 	}
 
 	/**
-		 Read 4 bytes
+		 Read 4 bytes (1-5 bytes in COMPACT format)
 	 */
 	public int readInt() {
-		return (int) readNumber(4);
+		return compact ? unzigzag((int) readVarNumber()) : readFixedInt();
+	}
+
+	private int readFixedInt() {
+		checkBufferAvail(4);
+		var number = getInt(bufferPosition);
+		bufferPosition += 4;
+		return number;
 	}
 
 	/**
-	    Skip 4 bytes
+	    Skip 4 bytes (1-5 bytes in COMPACT format)
 	 */
 	public void skipInt() {
+		if (compact) {
+			readVarNumber();
+			return;
+		}
 		skipBytes(4);
 	}
 
 	/**
-	    Read 8 bytes
+	    Read 8 bytes (1-10 bytes in COMPACT format)
 	 */
 	public long readLong() {
-		return readNumber(8);
+		return compact ? unzigzag(readVarNumber()) : readFixedLong();
+	}
+
+	private long readFixedLong() {
+		checkBufferAvail(8);
+		var number = getLong(bufferPosition);
+		bufferPosition += 8;
+		return number;
 	}
 
 	/**
-	    Skip 8 bytes
+	    Skip 8 bytes (1-10 bytes in COMPACT format)
 	 */
 	public void skipLong() {
+		if (compact) {
+			readVarNumber();
+			return;
+		}
 		skipBytes(8);
 	}
 
 	/**
-	    Read 4 bytes
+	    Read 4 bytes (2 bytes in COMPACT format)
 	 */
 	public char readChar() {
-		return (char) readInt();
+		return compact ? (char) readShort() : (char) readFixedInt();
 	}
 
 	/**
-		 Skip 4 bytes
+		 Skip 4 bytes (2 bytes in COMPACT format)
 	 */
 	public void skipChar() {
-		skipInt();
+		skipBytes(compact ? 2 : 4);
 	}
 
 	/**
@@ -158,28 +508,97 @@ public class SerializationInput {
 	    Read 4 bytes
 	 */
 	public float readFloat() {
-		return Float.intBitsToFloat(readInt());
+		return Float.intBitsToFloat(readFixedInt());
 	}
 
 	/**
 	    Skip 4 bytes
 	 */
 	public void skipFloat() {
-		skipInt();
+		skipBytes(4);
 	}
 
 	/**
 	    Read 8 bytes
 	 */
 	public double readDouble() {
-		return Double.longBitsToDouble(readLong());
+		return Double.longBitsToDouble(readFixedLong());
 	}
 
 	/**
 	    Skip 8 bytes
 	 */
 	public void skipDouble() {
-		skipLong();
+		skipBytes(8);
+	}
+
+	/**
+	    Read length bytes into the array
+	 */
+	public void readBytes(byte[] bytes, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, bytes.length);
+		checkBulkAvail(length);
+		if (buffer == null) {
+			byteBuffer.get(bufferPosition, bytes, offset, length);
+		} else {
+			System.arraycopy(buffer, bufferPosition, bytes, offset, length);
+		}
+		bufferPosition += length;
+	}
+
+	/**
+	    Read length * 2 bytes into the array
+	 */
+	public void readShorts(short[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		checkBulkAvail((long) length * Short.BYTES);
+		for (int i = 0; i < length; i++, bufferPosition += Short.BYTES) {
+			numbers[offset + i] = getShort(bufferPosition);
+		}
+	}
+
+	/**
+	    Read length * 4 bytes into the array
+	 */
+	public void readInts(int[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		checkBulkAvail((long) length * Integer.BYTES);
+		for (int i = 0; i < length; i++, bufferPosition += Integer.BYTES) {
+			numbers[offset + i] = getInt(bufferPosition);
+		}
+	}
+
+	/**
+	    Read length * 8 bytes into the array
+	 */
+	public void readLongs(long[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		checkBulkAvail((long) length * Long.BYTES);
+		for (int i = 0; i < length; i++, bufferPosition += Long.BYTES) {
+			numbers[offset + i] = getLong(bufferPosition);
+		}
+	}
+
+	/**
+	    Read length * 4 bytes into the array
+	 */
+	public void readFloats(float[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		checkBulkAvail((long) length * Float.BYTES);
+		for (int i = 0; i < length; i++, bufferPosition += Float.BYTES) {
+			numbers[offset + i] = Float.intBitsToFloat(getInt(bufferPosition));
+		}
+	}
+
+	/**
+	    Read length * 8 bytes into the array
+	 */
+	public void readDoubles(double[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		checkBulkAvail((long) length * Double.BYTES);
+		for (int i = 0; i < length; i++, bufferPosition += Double.BYTES) {
+			numbers[offset + i] = Double.longBitsToDouble(getLong(bufferPosition));
+		}
 	}
 
 	/**
@@ -188,8 +607,9 @@ public class SerializationInput {
 	    Load an object by Class
 	 */
 	public <T> T readObject(Class<T> objectClass) {
-		skipBytes(2); // Skip object class signature
-		return readObject0(getSerializer(objectClass), objectClass.getSimpleName());
+		var headerPosition = bufferPosition;
+		readSignature(); // Skip object class signature
+		return readObject0(getSerializer(objectClass), objectClass.getSimpleName(), headerPosition);
 	}
 
 	/**
@@ -198,41 +618,139 @@ public class SerializationInput {
 	    Load an object by Signature
 	 */
 	public <T> T readObject() {
-		var objectSignature = readShort(); // Read the object class signature
-		return readObject0(getSerializer(objectSignature), format("0x%s", Integer.toHexString(objectSignature)));
+		var headerPosition = bufferPosition;
+		var objectSignature = readSignature(); // Read the object class signature
+		return readObject0(getSerializer(objectSignature), String.format("0x%s", Integer.toHexString(objectSignature)), headerPosition);
 	}
-	private <T> T readObject0(RuntimeSerializer<T> serializer, String source) {
+	private <T> T readObject0(RuntimeSerializer<T> serializer, String source, int headerPosition) {
 		if (serializer == null) {
-			throw new SerializerObjectUnknownException(format("Unknown serializer: %s", source));
+			throw new SerializerObjectUnknownException(String.format("Unknown serializer: %s", source));
+		}
+		var objectSize = readSize(); // Size of object data
+		if (objectSize < -1) {
+			return readReference(-2 - objectSize, headerPosition); // Sizes below -1 are back-references
 		}
-		var objectSize = readInt(); // Size of object data
 		if (objectSize < 0) {
 			return null; // A negative size means a null instance
 		}
-		var objectData = new byte[objectSize];
-		for (int i = 0; i < objectSize; i++) {
-			objectData[i] = readByte();
+		skipBytes(objectSize); // Move past the object first, so a failed load doesn't affect the following ones
+		var subBuffer = new SerializationInput(this, bufferPosition - objectSize, bufferPosition); // Create a sub-buffer view with object data
+		if (references == null) {
+			return deserialize(serializer, subBuffer);
 		}
-		var subBuffer = new SerializationInput(objectData); // Create a sub-buffer with object data
+		subBuffer.objectOffset = headerPosition - bufferOrigin;
+		references.put(subBuffer.objectOffset, SerializationReferences.Read.IN_PROGRESS);
+		T object = null; // A failed object is null for back-references too
+		try {
+			object = deserialize(serializer, subBuffer);
+		} finally {
+			references.put(subBuffer.objectOffset, object);
+		}
+		return object;
+	}
+	private static <T> T deserialize(RuntimeSerializer<T> serializer, SerializationInput subBuffer) {
 		try {
 			return serializer.serializerInstance().deserialize(subBuffer);
 		} catch (Throwable t) {
-			throw new SerializerObjectLoadException(format("Failed to load object: %s", serializer.objectClass().getSimpleName()), t);
+			throw new SerializerObjectLoadException(String.format("Failed to load object: %s", serializer.objectClass().getSimpleName()), t);
+		}
+	}
+	/**
+	    Requires at least 6 bytes
+
+	    Skip the object and return a handle that loads it on the first get(). The handle can be written to
+	    SerializationOutput.writeLazy() as raw bytes without loading the object.
+	    It reads the data of this input, so it must not be used after reset() or a refill of a streaming input
+	 */
+	public <T> SerializationLazy<T> readLazy(Class<T> objectClass) {
+		var headerPosition = bufferPosition;
+		readSignature(); // Skip object class signature
+		var serializer = getSerializer(objectClass);
+		if (serializer == null) {
+			throw new SerializerObjectUnknownException(String.format("Unknown serializer: %s", objectClass.getSimpleName()));
+		}
+		var objectSize = readSize();
+		if (objectSize < -1) {
+			return new SerializationLazy<>(serializer, readReference(-2 - objectSize, headerPosition)); // Sizes below -1 are back-references
+		}
+		if (objectSize < 0) {
+			return new SerializationLazy<>(serializer, null); // A negative size means a null instance
+		}
+		skipBytes(objectSize);
+		return new SerializationLazy<>(serializer, this, headerPosition, bufferPosition - objectSize, bufferPosition);
+	}
+	/**
+	    Loads the object of a handle from readLazy(). With tracked references it's the same instance that back-references get
+	 */
+	<T> T loadLazy(RuntimeSerializer<T> serializer, int headerPosition, int dataStart, int dataEnd) {
+		if (references != null) {
+			return readReference(headerPosition - bufferOrigin, headerPosition + 1); // The object itself
+		}
+		return deserialize(serializer, new SerializationInput(this, dataStart, dataEnd));
+	}
+	/**
+	    Writes the bytes from the index to the index as they are
+	 */
+	void copyTo(SerializationOutput output, int from, int to) {
+		if (buffer != null) {
+			output.writeBytes(buffer, from, to - from);
+			return;
 		}
+		var bytes = new byte[to - from];
+		byteBuffer.get(from, bytes);
+		output.writeBytes(bytes, 0, bytes.length);
+	}
+	/**
+	    Returns the object with the header at the offset. If it wasn't read yet, it's read now.
+	    A back-reference points before the header that refers, so the referenced object must start before the limit
+	 */
+	@SuppressWarnings(value = "unchecked")
+	private <T> T readReference(int offset, int limit) {
+		if (references == null) {
+			throw new SerializerObjectLoadException("Found a back-reference, but references aren't tracked");
+		}
+		var object = references.objectAt(offset);
+		if (object == SerializationReferences.Read.IN_PROGRESS) {
+			throw new SerializerObjectLoadException(String.format("Cyclic reference to an object that isn't created yet (offset %s). Its deserializer must call reference()", offset));
+		}
+		if (object != SerializationReferences.Read.MISSING) {
+			return (T) object;
+		}
+		var referencePosition = bufferOrigin + (long) offset;
+		if (offset < 0 || referencePosition >= limit) {
+			throw new SerializerObjectLoadException(String.format("Back-reference doesn't point back (offset %s)", offset));
+		}
+		return new SerializationInput(this, (int) referencePosition, bufferSize).readObject(); // The referenced object is before this one, in the same buffer
 	}
 
 	/**
-	    Requires at least 6 bytes. Returns a string if there's a serialized string object
-	    Or throws an exception
+	    Requires 4 bytes (1-5 bytes in COMPACT format) for the length and the UTF-8 bytes of string.
+	    The string is decoded right from the buffer
 	 */
 	public String readString() {
-		return readObject();
+		var utfLength = readInt();
+		if (utfLength < 0) {
+			return null; // A negative length means a null string
+		}
+		checkBulkAvail(utfLength);
+		if (buffer == null) {
+			var utfBytes = new byte[utfLength]; // String can't be decoded from a ByteBuffer without a copy
+			readBytes(utfBytes, 0, utfLength);
+			return new String(utfBytes, StandardCharsets.UTF_8);
+		}
+		var string = new String(buffer, bufferPosition, utfLength, StandardCharsets.UTF_8);
+		bufferPosition += utfLength;
+		return string;
 	}
 
 	/**
-	    Skip 6 bytes
+	    Skip 4 bytes (1-5 bytes in COMPACT format) and the string bytes
 	 */
 	public void skipString() {
-		skipObject();
+		var utfLength = readInt();
+		if (utfLength < 0) {
+			return;
+		}
+		skipBytes(utfLength);
 	}
 }
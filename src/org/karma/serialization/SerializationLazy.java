@@ -0,0 +1,96 @@
+package org.karma.serialization;
+
+import org.karma.serialization.QuickSerializer.RuntimeSerializer;
+
+import java.nio.ByteOrder;
+
+/**
+ *  Handle of an object that is read by SerializationInput.readLazy().
+ *  The object is loaded on the first get(), and SerializationOutput.writeLazy() copies its bytes without loading it,
+ *  so an object that is only passed through costs a copy of its bytes.
+ *  The handle reads the data of the input, so it must not be used after the input is reset.
+ */
+public final class SerializationLazy<T> {
+	private final RuntimeSerializer<T> serializer;
+	private final SerializationInput source; // Null if the object is loaded right away (a null instance or a back-reference)
+	private final int headerPosition;
+	private final int dataStart;
+	private final int dataEnd;
+	private final ByteOrder order;
+	private final SerializationFormat format;
+	private final boolean raw; // The bytes can be copied: they don't have back-references
+	private T object;
+	private boolean loaded;
+
+	SerializationLazy(RuntimeSerializer<T> serializer, SerializationInput source, int headerPosition, int dataStart, int dataEnd) {
+		this.serializer = serializer;
+		this.source = source;
+		this.headerPosition = headerPosition;
+		this.dataStart = dataStart;
+		this.dataEnd = dataEnd;
+		this.order = source.order();
+		this.format = source.format();
+		this.raw = !source.isTrackingReferences();
+	}
+
+	SerializationLazy(RuntimeSerializer<T> serializer, T object) {
+		this.serializer = serializer;
+		this.source = null;
+		this.headerPosition = this.dataStart = this.dataEnd = -1;
+		this.order = null;
+		this.format = null;
+		this.raw = false;
+		this.object = object;
+		this.loaded = true;
+	}
+
+	/**
+		Returns the object, it's loaded on the first call
+	 */
+	public T get() {
+		if (!loaded) {
+			object = source.loadLazy(serializer, headerPosition, dataStart, dataEnd);
+			loaded = true;
+		}
+		return object;
+	}
+
+	/**
+		Returns true if the object is loaded
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+		Returns the size of the object data, -1 for a null instance or a back-reference
+	 */
+	public int size() {
+		return source == null ? -1 : dataEnd - dataStart;
+	}
+
+	/**
+		Returns the signature of the object type
+	 */
+	public short signature() {
+		return serializer.signature();
+	}
+
+	Class<T> objectClass() {
+		return serializer.objectClass();
+	}
+
+	/**
+		Returns true if the bytes can be copied to the output as they are
+	 */
+	boolean isRaw(ByteOrder outputOrder, SerializationFormat outputFormat) {
+		return raw && order == outputOrder && format == outputFormat;
+	}
+
+	/**
+		Writes the header and the data as they are
+	 */
+	void copyTo(SerializationOutput output) {
+		source.copyTo(output, headerPosition, dataEnd);
+	}
+}
@@ -2,70 +2,438 @@ package org.karma.serialization;
 
 import org.karma.serialization.QuickSerializer.RuntimeSerializer;
 
-import static java.lang.String.format;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+
 import static org.karma.serialization.QuickSerializer.getSerializer;
 
 @SuppressWarnings(value = "unchecked")
 public class SerializationOutput {
-	private final byte[] buffer;
-	private final int bufferMaxSize;
+	private static final VarHandle SHORT = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle INT = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+	private static final VarHandle SHORT_LE = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INT_LE = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final int MAX_SIZE = Integer.MAX_VALUE - 1; // The last byte is the end of data mark, see getBytes()
+
+	private byte[] buffer; // The whole buffer or the current chunk of a growing output
+	private final ByteBuffer byteBuffer; // Used instead of buffer if the output is a ByteBuffer without array (a direct one)
+	private int bufferEnd; // Usable end of buffer
 	private int bufferPosition = 0;
+	private int bufferLimit; // Writes must end at or before it. Either bufferEnd or the end of the object being written
+	private boolean littleEndian;
+	private boolean compact;
+	private SerializationReferences.Written references; // Null if references aren't tracked
+	private SerializationIndex index; // Null if top-level objects aren't indexed
+
+	// Growing output only. Filled chunks and their used sizes, the current chunk isn't there
+	private final SerializationPool<byte[]> chunkPool;
+	private final ArrayList<byte[]> chunks;
+	private int[] chunkSizes;
+	private int bufferOffset = 0; // Absolute position of buffer[0]: used bytes of the filled chunks or minus start of a ByteBuffer
+
+	// Absolute positions of the object being written. The top level is an object too
+	private int objectStart = 0;
+	private int objectLimit;
 
 	/**
 		 @param bufferSize - max size of buffer. (in bytes)
 	 */
 	SerializationOutput(int bufferSize) {
-		this.bufferMaxSize = bufferSize;
 		this.buffer = new byte[bufferSize];
+		this.bufferEnd = bufferSize;
+		this.objectLimit = bufferSize - 1;
+		this.bufferLimit = objectLimit;
+		this.byteBuffer = null;
+		this.chunkPool = null;
+		this.chunks = null;
+	}
+
+	/**
+		 Creates an output that writes into the ByteBuffer from its position to its limit.
+		 Neither the position nor the limit of ByteBuffer are changed, size() returns how many bytes are written
+	 */
+	SerializationOutput(ByteBuffer target) {
+		var start = target.position();
+		if (target.hasArray()) {
+			start += target.arrayOffset();
+			this.buffer = target.array();
+			this.byteBuffer = null;
+		} else {
+			this.buffer = null;
+			this.byteBuffer = target.duplicate().order(ByteOrder.BIG_ENDIAN);
+		}
+		this.bufferPosition = start;
+		this.bufferOffset = -start;
+		this.bufferEnd = start + target.remaining();
+		this.objectLimit = target.remaining() - 1;
+		this.chunkPool = null;
+		this.chunks = null;
+		updateLimit();
+	}
+
+	/**
+		 Creates an output that grows on demand by taking chunks from the pool.
+		 Filled chunks are never copied, getBytes() gathers them.
+	 */
+	SerializationOutput(SerializationPool<byte[]> chunkPool) {
+		this.byteBuffer = null;
+		this.chunkPool = chunkPool;
+		this.chunks = new ArrayList<>();
+		this.chunkSizes = new int[8];
+		this.buffer = chunkPool.acquire();
+		this.bufferEnd = buffer.length;
+		this.objectLimit = MAX_SIZE;
+		this.bufferLimit = bufferEnd;
 	}
+
 	/**
-	    Throws SerializerEndOfBufferException if there's not enough bytes
+	    Throws SerializerEndOfBufferException if there's not enough bytes.
+	    A growing output starts a new chunk instead, so the bytes are never split between chunks
 	 */
 	private void checkBufferAvail(int bytesNeeded) {
-		var askedBytes = bufferPosition + bytesNeeded;
-		if (askedBytes < bufferMaxSize) {
+		if (bufferPosition + bytesNeeded <= bufferLimit) {
+			return;
+		}
+		var askedBytes = position() + bytesNeeded;
+		if (chunks == null || askedBytes > objectLimit) {
+			throw new SerializerEndOfBufferException(String.format("Reached the end of buffer. Buffer size: %s, asked: %s", objectLimit + 1 - objectStart, askedBytes - objectStart));
+		}
+		nextChunk();
+	}
+	/**
+	    Moves the current chunk to the filled ones and takes a new one from the pool
+	 */
+	private void nextChunk() {
+		if (objectLimit == MAX_SIZE && spill()) {
+			return; // Everything is written out between two top-level values, so the chunk is empty again
+		}
+		var chunkIndex = chunks.size();
+		if (chunkIndex == chunkSizes.length) {
+			chunkSizes = Arrays.copyOf(chunkSizes, chunkIndex * 2);
+		}
+		chunks.add(buffer);
+		chunkSizes[chunkIndex] = bufferPosition;
+		bufferOffset += bufferPosition;
+		buffer = chunkPool.acquire();
+		bufferPosition = 0;
+		updateLimit();
+	}
+	/**
+		 Called when the current chunk is full at the top level, between two values. A streaming output writes the data out
+		 and returns true, so the chunks are reused instead of growing the output
+	 */
+	boolean spill() {
+		return false;
+	}
+	/**
+	    Bulk writes check the whole size once. Throws SerializerEndOfBufferException if there's not enough bytes
+	 */
+	private void checkBulkAvail(long bytesNeeded) {
+		var askedBytes = position() + bytesNeeded;
+		if (askedBytes <= objectLimit) {
 			return;
 		}
-		throw new SerializerEndOfBufferException(format("Reached the end of buffer. Buffer size: %s, asked: %s", bufferMaxSize, askedBytes));
+		throw new SerializerEndOfBufferException(String.format("Reached the end of buffer. Buffer size: %s, asked: %s", objectLimit + 1 - objectStart, askedBytes - objectStart));
+	}
+	/**
+	    Returns how many elements (at least one) of a bulk write fit into the current chunk
+	 */
+	private int availableElements(int elementBytes, int elements) {
+		if (bufferPosition + elementBytes > bufferLimit) {
+			nextChunk(); // The space is already checked, so only a growing output can get here
+		}
+		return Math.min(elements, (bufferLimit - bufferPosition) / elementBytes);
+	}
+	private void updateLimit() {
+		bufferLimit = (int) Math.min(bufferEnd, (long) objectLimit - bufferOffset);
+	}
+	/**
+		 Absolute position of the next byte
+	 */
+	int position() {
+		return bufferOffset + bufferPosition;
+	}
+	/**
+		 Moves the position back, filled chunks after it go back to the pool
+	 */
+	private void truncate(int position) {
+		while (position < bufferOffset) {
+			chunkPool.release(buffer);
+			var chunkIndex = chunks.size() - 1;
+			buffer = chunks.remove(chunkIndex);
+			bufferPosition = chunkSizes[chunkIndex];
+			bufferOffset -= bufferPosition;
+		}
+		bufferPosition = position - bufferOffset;
+		updateLimit();
+	}
+	/**
+	    Puts a number into the buffer at the index in the output byte order. Each one is a single store
+	 */
+	private void putShort(byte[] buffer, int index, short number) {
+		if (buffer == null) {
+			byteBuffer.putShort(index, littleEndian ? Short.reverseBytes(number) : number);
+		} else if (littleEndian) {
+			SHORT_LE.set(buffer, index, number);
+		} else {
+			SHORT.set(buffer, index, number);
+		}
+	}
+	private void putInt(byte[] buffer, int index, int number) {
+		if (buffer == null) {
+			byteBuffer.putInt(index, littleEndian ? Integer.reverseBytes(number) : number);
+		} else if (littleEndian) {
+			INT_LE.set(buffer, index, number);
+		} else {
+			INT.set(buffer, index, number);
+		}
+	}
+	private void putLong(byte[] buffer, int index, long number) {
+		if (buffer == null) {
+			byteBuffer.putLong(index, littleEndian ? Long.reverseBytes(number) : number);
+		} else if (littleEndian) {
+			LONG_LE.set(buffer, index, number);
+		} else {
+			LONG.set(buffer, index, number);
+		}
+	}
+	/**
+	    Puts the size of an object into the slot at the absolute position without moving it.
+	    The slot is written by writeSize() with the same width, so it's in one chunk
+	 */
+	private void putSize(int position, int size, int width) {
+		var chunk = buffer;
+		var chunkPosition = bufferOffset;
+		for (int i = chunks == null ? 0 : chunks.size() - 1; position < chunkPosition; i--) {
+			chunk = chunks.get(i);
+			chunkPosition -= chunkSizes[i];
+		}
+		if (compact) {
+			putVarNumber(chunk, position - chunkPosition, zigzag(size), width);
+		} else {
+			putInt(chunk, position - chunkPosition, size);
+		}
+	}
+	/**
+		Set the byte order of numbers. SerializationInput must use the same order to read the data.
+		BIG_ENDIAN is the default, little-endian hosts write LITTLE_ENDIAN data without swapping bytes
+	 */
+	public SerializationOutput order(ByteOrder order) {
+		this.littleEndian = order == ByteOrder.LITTLE_ENDIAN;
+		return this;
+	}
+	/**
+		Returns the byte order of numbers
+	 */
+	public ByteOrder order() {
+		return littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+	}
+	/**
+		Set the encoding of numbers and object headers. SerializationInput must use the same format to read the data
+	 */
+	public SerializationOutput format(SerializationFormat format) {
+		this.compact = format == SerializationFormat.COMPACT;
+		return this;
+	}
+	/**
+		Returns the encoding of numbers and object headers
+	 */
+	public SerializationFormat format() {
+		return compact ? SerializationFormat.COMPACT : SerializationFormat.STANDARD;
+	}
+	/**
+		Turn reference tracking on or off. When it's on, an object that was already written to this output
+		is written as a back-reference to the first copy (a negative size with no data),
+		so shared objects are written once and cyclic graphs can be written.
+		SerializationInput must track references too to read the data.
+		The written objects are forgotten on reset()
+	 */
+	public SerializationOutput trackReferences(boolean track) {
+		if (!track) {
+			references = null;
+		} else if (references == null) {
+			references = new SerializationReferences.Written();
+		}
+		return this;
+	}
+	/**
+		Returns true if references are tracked
+	 */
+	public boolean isTrackingReferences() {
+		return references != null;
+	}
+	/**
+		Turn the index of top-level objects on or off. When it's on, the offset and the signature of every top-level object
+		are recorded, writeIndex() writes them at the end of data. The recorded objects are forgotten on reset()
+	 */
+	public SerializationOutput indexObjects(boolean index) {
+		if (!index) {
+			this.index = null;
+		} else if (this.index == null) {
+			this.index = new SerializationIndex();
+		}
+		return this;
+	}
+	/**
+		Returns true if top-level objects are indexed
+	 */
+	public boolean isIndexingObjects() {
+		return index != null;
+	}
+	/**
+		Write the index of the top-level objects written so far, see SerializationIndex. It must be the last write.
+		SerializationInput finds it with readIndex() and seeks to an object with seekObject()
+	 */
+	public void writeIndex() {
+		if (index == null) {
+			throw new IllegalStateException("Top-level objects aren't indexed, see indexObjects()");
+		}
+		var entries = index;
+		index = null; // The index itself isn't indexed
+		try {
+			entries.indexOffset = position();
+			writeObject(entries);
+		} finally {
+			index = entries;
+		}
+	}
+	/**
+		Records a top-level object at the offset
+	 */
+	private void indexObject(int headerPosition, short signature) {
+		if (index != null && objectStart == 0) {
+			index.add(headerPosition, signature);
+		}
+	}
+	/**
+	    Returns how many bytes an unsigned LEB128 number takes
+	 */
+	static int varNumberSize(long number) {
+		return (63 - Long.numberOfLeadingZeros(number | 1)) / 7 + 1;
+	}
+	/**
+	    Writes an unsigned LEB128 number: 7 bits per byte, the high bit means that there's one more byte
+	 */
+	private void writeVarNumber(long number) {
+		var size = varNumberSize(number);
+		checkBufferAvail(size);
+		putVarNumber(buffer, bufferPosition, number, size);
+		bufferPosition += size;
+	}
+	/**
+	    Puts an unsigned LEB128 number that takes exactly size bytes. Smaller numbers are padded with continuation bytes
+	 */
+	private void putVarNumber(byte[] buffer, int index, long number, int size) {
+		for (int i = 1; i < size; i++, number >>>= 7) {
+			putByte(buffer, index++, (byte) (number | 0x80));
+		}
+		putByte(buffer, index, (byte) (number & 0x7f));
+	}
+	private void putByte(byte[] buffer, int index, byte number) {
+		if (buffer == null) {
+			byteBuffer.put(index, number);
+		} else {
+			buffer[index] = number;
+		}
 	}
 	/**
-	    Returns a number with a special number of bytes
+	    Writes the signature of an object type
 	 */
-	private void writeNumber(int bytes, long number) {
-		checkBufferAvail(bytes); // Ensure that there's enough bytes
-		for (int i = 0; i < bytes; i++) {
-			buffer[bufferPosition++] = (byte) (0xff & (number >> (bytes - 1 - i) * 8));
+	void writeSignature(short signature) {
+		if (compact) {
+			writeVarNumber(signature & 0xffff);
+		} else {
+			writeShort(signature);
 		}
 	}
+	/**
+	    Returns how many bytes the size of an object takes
+	 */
+	private int sizeWidth(int maxSize) {
+		return compact ? varNumberSize(zigzag(maxSize)) : 4;
+	}
+	/**
+	    Writes the size of an object. A negative size means a null instance
+	 */
+	private void writeSize(int size) {
+		if (compact) {
+			writeVarNumber(zigzag(size));
+		} else {
+			writeFixedInt(size);
+		}
+	}
+	static long zigzag(int number) {
+		return Integer.toUnsignedLong((number << 1) ^ (number >> 31));
+	}
+	static long zigzag(long number) {
+		return (number << 1) ^ (number >> 63);
+	}
 	/**
 	    Requires 1 byte
 	 */
 	public void writeByte(byte number) {
-		writeNumber(1, number);
+		checkBufferAvail(1);
+		putByte(buffer, bufferPosition++, number);
 	}
 	/**
 	    Requires 2 bytes
 	 */
 	public void writeShort(short number) {
-		writeNumber(2, number);
+		checkBufferAvail(2);
+		putShort(buffer, bufferPosition, number);
+		bufferPosition += 2;
 	}
 	/**
-	    Requires 4 bytes
+	    Requires 4 bytes (1-5 bytes in COMPACT format)
 	 */
 	public void writeInt(int number) {
-		writeNumber(4, number);
+		if (compact) {
+			writeVarNumber(zigzag(number));
+			return;
+		}
+		writeFixedInt(number);
+	}
+	private void writeFixedInt(int number) {
+		checkBufferAvail(4);
+		putInt(buffer, bufferPosition, number);
+		bufferPosition += 4;
 	}
 	/**
-		 Requires 8 bytes
+		 Requires 8 bytes (1-10 bytes in COMPACT format)
 	 */
 	public void writeLong(long number) {
-		writeNumber(8, number);
+		if (compact) {
+			writeVarNumber(zigzag(number));
+			return;
+		}
+		writeFixedLong(number);
+	}
+	private void writeFixedLong(long number) {
+		checkBufferAvail(8);
+		putLong(buffer, bufferPosition, number);
+		bufferPosition += 8;
 	}
 	/**
-	    Requires 4 bytes
+	    Requires 4 bytes (2 bytes in COMPACT format)
 	 */
 	public void writeChar(char character) {
-		writeInt(character);
+		if (compact) {
+			writeShort((short) character);
+			return;
+		}
+		writeFixedInt(character);
 	}
 	/**
 		 Requires 1 byte
@@ -77,21 +445,175 @@ public class SerializationOutput {
 	    Requires 4 bytes
 	 */
 	public void writeFloat(float number) {
-		checkBufferAvail(4);
-		writeInt(Float.floatToIntBits(number));
+		writeFixedInt(Float.floatToIntBits(number));
 	}
 	/**
 		Requires 8 bytes
 	 */
 	public void writeDouble(double number) {
-		checkBufferAvail(8);
-		writeLong(Double.doubleToLongBits(number));
+		writeFixedLong(Double.doubleToLongBits(number));
+	}
+	/**
+	    Requires length bytes
+	 */
+	public void writeBytes(byte[] bytes, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, bytes.length);
+		checkBulkAvail(length);
+		while (length > 0) {
+			var count = availableElements(Byte.BYTES, length);
+			if (buffer == null) {
+				byteBuffer.put(bufferPosition, bytes, offset, count);
+			} else {
+				System.arraycopy(bytes, offset, buffer, bufferPosition, count);
+			}
+			bufferPosition += count;
+			offset += count;
+			length -= count;
+		}
+	}
+	/**
+	    Requires length * 2 bytes
+	 */
+	public void writeShorts(short[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		checkBulkAvail((long) length * Short.BYTES);
+		while (length > 0) {
+			var count = availableElements(Short.BYTES, length);
+			for (int i = 0; i < count; i++, bufferPosition += Short.BYTES) {
+				putShort(buffer, bufferPosition, numbers[offset + i]);
+			}
+			offset += count;
+			length -= count;
+		}
+	}
+	/**
+	    Requires length * 4 bytes
+	 */
+	public void writeInts(int[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		checkBulkAvail((long) length * Integer.BYTES);
+		while (length > 0) {
+			var count = availableElements(Integer.BYTES, length);
+			for (int i = 0; i < count; i++, bufferPosition += Integer.BYTES) {
+				putInt(buffer, bufferPosition, numbers[offset + i]);
+			}
+			offset += count;
+			length -= count;
+		}
+	}
+	/**
+	    Requires length * 8 bytes
+	 */
+	public void writeLongs(long[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		checkBulkAvail((long) length * Long.BYTES);
+		while (length > 0) {
+			var count = availableElements(Long.BYTES, length);
+			for (int i = 0; i < count; i++, bufferPosition += Long.BYTES) {
+				putLong(buffer, bufferPosition, numbers[offset + i]);
+			}
+			offset += count;
+			length -= count;
+		}
+	}
+	/**
+	    Requires length * 4 bytes
+	 */
+	public void writeFloats(float[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		checkBulkAvail((long) length * Float.BYTES);
+		while (length > 0) {
+			var count = availableElements(Float.BYTES, length);
+			for (int i = 0; i < count; i++, bufferPosition += Float.BYTES) {
+				putInt(buffer, bufferPosition, Float.floatToIntBits(numbers[offset + i]));
+			}
+			offset += count;
+			length -= count;
+		}
 	}
 	/**
-	    Requires at least 10 bytes
+	    Requires length * 8 bytes
+	 */
+	public void writeDoubles(double[] numbers, int offset, int length) {
+		Objects.checkFromIndexSize(offset, length, numbers.length);
+		checkBulkAvail((long) length * Double.BYTES);
+		while (length > 0) {
+			var count = availableElements(Double.BYTES, length);
+			for (int i = 0; i < count; i++, bufferPosition += Double.BYTES) {
+				putLong(buffer, bufferPosition, Double.doubleToLongBits(numbers[offset + i]));
+			}
+			offset += count;
+			length -= count;
+		}
+	}
+	/**
+	    Requires 4 bytes (1-5 bytes in COMPACT format) for the length and the UTF-8 bytes of string.
+	    A null string is written as -1 length
 	 */
 	public void writeString(String string) {
-		writeObject(string);
+		if (string == null) {
+			writeInt(-1);
+			return;
+		}
+		var stringLength = string.length();
+		var utfLength = utfLength(string);
+		checkBulkAvail((long) (compact ? varNumberSize(zigzag(utfLength)) : 4) + utfLength);
+		writeInt(utfLength);
+		if (bufferPosition + utfLength > bufferLimit && utfLength <= bufferEnd) {
+			nextChunk(); // Only a growing output can get here, the space is already checked
+		}
+		if (buffer == null || bufferPosition + utfLength > bufferLimit) {
+			var stringBytes = string.getBytes(StandardCharsets.UTF_8); // Larger than a chunk (split between chunks) or not in an array
+			writeBytes(stringBytes, 0, utfLength);
+			return;
+		}
+		var i = 0;
+		for (char c; i < stringLength && (c = string.charAt(i)) < 0x80; i++) {
+			buffer[bufferPosition++] = (byte) c; // ASCII, the most common case
+		}
+		for (; i < stringLength; i++) {
+			var c = string.charAt(i);
+			if (c < 0x80) {
+				buffer[bufferPosition++] = (byte) c;
+			} else if (c < 0x800) {
+				buffer[bufferPosition++] = (byte) (0xc0 | c >> 6);
+				buffer[bufferPosition++] = (byte) (0x80 | c & 0x3f);
+			} else if (Character.isHighSurrogate(c) && i + 1 < stringLength && Character.isLowSurrogate(string.charAt(i + 1))) {
+				var codePoint = Character.toCodePoint(c, string.charAt(++i));
+				buffer[bufferPosition++] = (byte) (0xf0 | codePoint >> 18);
+				buffer[bufferPosition++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+				buffer[bufferPosition++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+				buffer[bufferPosition++] = (byte) (0x80 | codePoint & 0x3f);
+			} else if (Character.isSurrogate(c)) {
+				buffer[bufferPosition++] = '?'; // Unpaired surrogate, the same as String.getBytes() does
+			} else {
+				buffer[bufferPosition++] = (byte) (0xe0 | c >> 12);
+				buffer[bufferPosition++] = (byte) (0x80 | c >> 6 & 0x3f);
+				buffer[bufferPosition++] = (byte) (0x80 | c & 0x3f);
+			}
+		}
+	}
+	/**
+	    Returns how many bytes the string takes in UTF-8
+	 */
+	private static int utfLength(String string) {
+		var stringLength = string.length();
+		var utfLength = stringLength;
+		for (int i = 0; i < stringLength; i++) {
+			var c = string.charAt(i);
+			if (c < 0x80) {
+				continue;
+			}
+			if (c < 0x800) {
+				utfLength += 1;
+			} else if (Character.isHighSurrogate(c) && i + 1 < stringLength && Character.isLowSurrogate(string.charAt(i + 1))) {
+				utfLength += 2; // 4 bytes for 2 chars
+				i++;
+			} else if (!Character.isSurrogate(c)) {
+				utfLength += 2;
+			}
+		}
+		return utfLength;
 	}
 	/**
 	    Requires 6 bytes
@@ -101,48 +623,210 @@ public class SerializationOutput {
 	public <T> void writeNull(Class<T> objectClass) {
 		var serializer = (RuntimeSerializer<T>) getSerializer(objectClass); // Get object serializer
 
-		writeShort(serializer.signature()); // Signature of the type
-		writeInt(-1); // Negative size means Null
+		var headerPosition = position();
+		writeSignature(serializer.signature()); // Signature of the type
+		writeSize(-1); // Negative size means Null
+		indexObject(headerPosition, serializer.signature());
 	}
 	/**
 	    Requires at least 6 bytes
+
+	    The object is written straight into this buffer, its size is filled in when the serializer returns.
+	    The object data can't be larger than SerializerObject.bytes().
+	    With tracked references an object that was already written becomes a back-reference
 	 */
 	public <T> void writeObject(T object) {
 		var serializer = (RuntimeSerializer<T>) getSerializer(object.getClass());
 		assert serializer != null;
 
-		writeShort(serializer.signature()); // Signature of the type
+		var headerPosition = position();
+		if (references != null) {
+			var objectOffset = references.offsetOf(object);
+			if (objectOffset >= 0) {
+				writeSignature(serializer.signature());
+				writeSize(-2 - objectOffset); // Sizes below -1 are back-references
+				indexObject(headerPosition, serializer.signature());
+				return;
+			}
+			references.put(object, headerPosition); // Before the data, so the object can refer to itself
+		}
+
+		writeSignature(serializer.signature()); // Signature of the type
 
-		var subBuffer = new SerializationOutput(serializer.bytes()); // Create sub-buffer with SerializerObject.bytes() size
+		var sizeWidth = sizeWidth(serializer.bytes());
+		checkBufferAvail(sizeWidth + 1); // The size of object and the end of object mark
+		var sizePosition = position();
+		bufferPosition += sizeWidth; // Reserve space for the size of object
+
+		var parentStart = objectStart;
+		var parentLimit = objectLimit;
+		objectStart = position();
+		// One byte is left for the end of object mark, so the object always fits into the parent
+		objectLimit = (int) Math.min((long) objectStart + serializer.bytes(), parentLimit) - 1;
+		updateLimit();
 
 		try {
-			serializer.serializerInstance().serialize(subBuffer, object); // We don't use current buffer due to safety. So we create a new one
+			serializer.serializerInstance().serialize(this, object);
 		} catch (Throwable t) {
-			writeInt(-1); // A negative size means a null instance
-			throw new SerializerObjectWriteException(format("Failed to write object. Written null instead of %s", serializer.objectClass().getSimpleName()), t);
+			objectStart = parentStart;
+			objectLimit = parentLimit;
+			truncate(sizePosition); // Roll back everything the serializer has written
+			if (references != null) {
+				references.truncate(headerPosition);
+			}
+			putSize(sizePosition, -1, sizeWidth); // A negative size means a null instance
+			bufferPosition += sizeWidth;
+			indexObject(headerPosition, serializer.signature());
+			throw new SerializerObjectWriteException(String.format("Failed to write object. Written null instead of %s", serializer.objectClass().getSimpleName()), t);
 		}
 
-		var result = subBuffer.getBytes(); // Get the used space of subBuffer
-		var resultLength = result.length;
-
-		writeInt(resultLength); // Size of object
+		var objectSize = position() + 1 - objectStart;
+		objectStart = parentStart;
+		objectLimit = parentLimit;
+		updateLimit();
 
-		for (int i = 0; i < resultLength; i++) {
-			writeByte(result[i]); // Rewrite byte from subBuffer to current
+		putSize(sizePosition, objectSize, sizeWidth); // Size of object, before a streaming output can write the data out
+		writeByte((byte) 0); // End of object mark
+		indexObject(headerPosition, serializer.signature());
+	}
+	/**
+	    Write an object from SerializationInput.readLazy(). If it isn't loaded, its bytes are copied without loading it.
+	    It's written with writeObject() if the data has another byte order or format, or if it may have back-references
+	 */
+	public <T> void writeLazy(SerializationLazy<T> lazy) {
+		if (lazy.isRaw(order(), format())) {
+			var headerPosition = position();
+			lazy.copyTo(this);
+			indexObject(headerPosition, lazy.signature());
+			return;
+		}
+		var object = lazy.get();
+		if (object == null) {
+			writeNull(lazy.objectClass());
+		} else {
+			writeObject(object);
 		}
 	}
 	/**
-		 Reset buffer position
+		 Reset buffer position, so the output can be used for the next message.
+		 A growing output keeps its first chunk, others go back to the pool
 	 */
-	private void reset() {
-		bufferPosition = 0;
+	public void reset() {
+		truncate(0);
+		if (references != null) {
+			references.clear();
+		}
+		if (index != null) {
+			index.clear();
+		}
 	}
 	/**
 		 Get the used space
 	 */
 	public byte[] getBytes() {
-		byte[] filled = new byte[bufferPosition+1];
-		System.arraycopy(buffer, 0, filled, 0, bufferPosition);
+		byte[] filled = new byte[position() + 1];
+		copyTo(filled, 0);
 		return filled;
 	}
+	/**
+		 Copy the used space into the array at the index, without the end of data mark
+	 */
+	void copyTo(byte[] target, int index) {
+		for (int i = 0, j = chunks == null ? 0 : chunks.size(); i < j; i++) {
+			System.arraycopy(chunks.get(i), 0, target, index, chunkSizes[i]);
+			index += chunkSizes[i];
+		}
+		var start = -Math.min(bufferOffset, 0);
+		if (buffer == null) {
+			byteBuffer.get(start, target, index, bufferPosition - start);
+		} else {
+			System.arraycopy(buffer, start, target, index, bufferPosition - start);
+		}
+	}
+	/**
+		 Returns how many bytes are written. getBytes() returns one byte more, the end of data mark
+	 */
+	public int size() {
+		return position();
+	}
+	/**
+		 Write the used space to the channel, the same bytes as getBytes() returns.
+		 Chunks are written as they are, without gathering them into one array
+	 */
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		write(channel, true);
+	}
+	/**
+		 Write the used space to the channel without the end of data mark and empty the output
+	 */
+	void drainTo(WritableByteChannel channel) throws IOException {
+		write(channel, false);
+		truncate(0);
+	}
+	private void write(WritableByteChannel channel, boolean endMark) throws IOException {
+		var chunkCount = chunks == null ? 0 : chunks.size();
+		var buffers = new ByteBuffer[endMark ? chunkCount + 2 : chunkCount + 1];
+		for (int i = 0; i < chunkCount; i++) {
+			buffers[i] = ByteBuffer.wrap(chunks.get(i), 0, chunkSizes[i]);
+		}
+		buffers[chunkCount] = currentBuffer();
+		if (endMark) {
+			buffers[chunkCount + 1] = ByteBuffer.allocate(1); // End of data mark
+		}
+		if (channel instanceof GatheringByteChannel gatheringChannel) {
+			var lastBuffer = buffers[buffers.length - 1];
+			while (lastBuffer.hasRemaining()) {
+				gatheringChannel.write(buffers);
+			}
+			return;
+		}
+		for (var byteBuffer : buffers) {
+			while (byteBuffer.hasRemaining()) {
+				channel.write(byteBuffer);
+			}
+		}
+	}
+	/**
+		 Write the used space to the stream, the same bytes as getBytes() returns
+	 */
+	public void writeTo(OutputStream stream) throws IOException {
+		for (int i = 0, j = chunks == null ? 0 : chunks.size(); i < j; i++) {
+			stream.write(chunks.get(i), 0, chunkSizes[i]);
+		}
+		if (buffer == null) {
+			stream.write(getBytes()); // There's no array to write from
+			return;
+		}
+		var start = -Math.min(bufferOffset, 0);
+		stream.write(buffer, start, bufferPosition - start);
+		stream.write(0); // End of data mark
+	}
+	/**
+		 Writes the used space from the position on to the channel without the end of data mark.
+		 Returns how many bytes the channel took, a non-blocking channel may take less than all of them
+	 */
+	long writeTo(GatheringByteChannel channel, int from) throws IOException {
+		var chunkCount = chunks == null ? 0 : chunks.size();
+		var buffers = new ByteBuffer[chunkCount + 1];
+		var first = chunkCount;
+		for (int i = 0, chunkPosition = 0; i < chunkCount; chunkPosition += chunkSizes[i++]) {
+			if (from < chunkPosition + chunkSizes[i]) {
+				first = Math.min(first, i);
+				buffers[i] = ByteBuffer.wrap(chunks.get(i), Math.max(from - chunkPosition, 0), chunkSizes[i] - Math.max(from - chunkPosition, 0));
+			}
+		}
+		var current = currentBuffer();
+		buffers[chunkCount] = current.position(current.position() + Math.max(from - Math.max(bufferOffset, 0), 0));
+		return channel.write(buffers, first, chunkCount + 1 - first);
+	}
+	/**
+		 Used space of the current buffer (chunk)
+	 */
+	private ByteBuffer currentBuffer() {
+		var start = -Math.min(bufferOffset, 0);
+		if (buffer == null) {
+			return byteBuffer.duplicate().position(start).limit(bufferPosition);
+		}
+		return ByteBuffer.wrap(buffer, start, bufferPosition - start);
+	}
 }
@@ -0,0 +1,59 @@
+package org.karma.serialization;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ *  Pool of reusable instances (buffer chunks, inputs, outputs).
+ *  Doesn't lock and doesn't use thread locals, so it's fine with any amount of threads:
+ *  an instance is taken from or put into a free slot with a single atomic operation,
+ *  the search starts at a slot picked by the current thread, so threads rarely touch the same slots.
+ */
+final class SerializationPool<T> {
+	private static final int PROBES = 4; // How many slots are tried before giving up
+
+	private final Supplier<T> factory;
+	private final AtomicReferenceArray<T> instances;
+
+	/**
+		 @param factory - creates a new instance when the pool is empty
+		 @param capacity - max amount of instances kept in the pool
+	 */
+	SerializationPool(Supplier<T> factory, int capacity) {
+		this.factory = factory;
+		this.instances = new AtomicReferenceArray<>(capacity);
+	}
+
+	/**
+		 Returns a pooled instance or a new one if the pool is empty
+	 */
+	T acquire() {
+		var slots = instances.length();
+		var slot = firstSlot(slots);
+		for (int i = 0; i < PROBES; i++, slot = (slot + 1) % slots) {
+			var instance = instances.getAndSet(slot, null);
+			if (instance != null) {
+				return instance;
+			}
+		}
+		return factory.get();
+	}
+
+	/**
+		 Returns the instance to the pool. If there's no free slot, it's left to GC
+	 */
+	void release(T instance) {
+		var slots = instances.length();
+		var slot = firstSlot(slots);
+		for (int i = 0; i < PROBES; i++, slot = (slot + 1) % slots) {
+			if (instances.get(slot) == null && instances.compareAndSet(slot, null, instance)) {
+				return;
+			}
+		}
+	}
+
+	private static int firstSlot(int slots) {
+		var id = Thread.currentThread().getId();
+		return Math.floorMod((int) ((id ^ (id >>> 16)) * 0x9E3779B9L >>> 32), slots); // The high half of the hash can be negative as an int
+	}
+}
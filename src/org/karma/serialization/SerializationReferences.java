@@ -0,0 +1,169 @@
+package org.karma.serialization;
+
+/**
+ *  Tables of objects that were already written or read, by the offset of their header.
+ *  Both are open addressing hash tables that are cleared without allocating, so they are reused for every message.
+ */
+final class SerializationReferences {
+	private static final int INITIAL_CAPACITY = 64; // Power of 2
+
+	private SerializationReferences() {
+	}
+
+	/**
+	 *  Offsets of written objects by identity
+	 */
+	static final class Written {
+		private Object[] objects = new Object[INITIAL_CAPACITY];
+		private int[] offsets = new int[INITIAL_CAPACITY];
+		private int[] usedSlots = new int[INITIAL_CAPACITY / 2]; // In the order of adding, so offsets are ascending
+		private int size = 0;
+
+		/**
+			 Returns the offset of the object or -1 if it wasn't written
+		 */
+		int offsetOf(Object object) {
+			var mask = objects.length - 1;
+			for (int slot = hash(object) & mask; objects[slot] != null; slot = (slot + 1) & mask) {
+				if (objects[slot] == object) {
+					return offsets[slot];
+				}
+			}
+			return -1;
+		}
+
+		void put(Object object, int offset) {
+			if (size * 2 >= objects.length) {
+				resize(objects.length * 2);
+			}
+			var mask = objects.length - 1;
+			var slot = hash(object) & mask;
+			while (objects[slot] != null) {
+				slot = (slot + 1) & mask;
+			}
+			objects[slot] = object;
+			offsets[slot] = offset;
+			usedSlots[size++] = slot;
+		}
+
+		/**
+			 Forgets the objects written at or after the offset
+		 */
+		void truncate(int offset) {
+			var keep = size;
+			while (keep > 0 && offsets[usedSlots[keep - 1]] >= offset) {
+				keep--;
+			}
+			if (keep != size) {
+				rebuild(keep, objects.length);
+			}
+		}
+
+		void clear() {
+			for (int i = 0; i < size; i++) {
+				objects[usedSlots[i]] = null;
+			}
+			size = 0;
+		}
+
+		private void resize(int capacity) {
+			rebuild(size, capacity);
+		}
+
+		/**
+			 Puts the first entries again into a table of the capacity
+		 */
+		private void rebuild(int entries, int capacity) {
+			var oldObjects = objects;
+			var oldOffsets = offsets;
+			var oldSlots = usedSlots;
+			objects = new Object[capacity];
+			offsets = new int[capacity];
+			usedSlots = new int[capacity / 2];
+			size = 0;
+			for (int i = 0; i < entries; i++) {
+				put(oldObjects[oldSlots[i]], oldOffsets[oldSlots[i]]);
+			}
+		}
+
+		private static int hash(Object object) {
+			var hash = System.identityHashCode(object);
+			return hash ^ (hash >>> 16);
+		}
+	}
+
+	/**
+	 *  Read objects by offset, so back-references can be resolved
+	 */
+	static final class Read {
+		static final Object MISSING = new Object(); // There's no object with this offset
+		static final Object IN_PROGRESS = new Object(); // The object is being read now
+
+		private int[] offsets = new int[INITIAL_CAPACITY];
+		private Object[] objects = new Object[INITIAL_CAPACITY];
+		private boolean[] used = new boolean[INITIAL_CAPACITY];
+		private int[] usedSlots = new int[INITIAL_CAPACITY / 2];
+		private int size = 0;
+
+		/**
+			 Returns the object with this offset (it can be null) or MISSING
+		 */
+		Object objectAt(int offset) {
+			var mask = offsets.length - 1;
+			for (int slot = hash(offset) & mask; used[slot]; slot = (slot + 1) & mask) {
+				if (offsets[slot] == offset) {
+					return objects[slot];
+				}
+			}
+			return MISSING;
+		}
+
+		void put(int offset, Object object) {
+			var mask = offsets.length - 1;
+			var slot = hash(offset) & mask;
+			for (; used[slot]; slot = (slot + 1) & mask) {
+				if (offsets[slot] == offset) {
+					objects[slot] = object;
+					return;
+				}
+			}
+			if (size * 2 >= offsets.length) {
+				resize(offsets.length * 2);
+				put(offset, object);
+				return;
+			}
+			used[slot] = true;
+			offsets[slot] = offset;
+			objects[slot] = object;
+			usedSlots[size++] = slot;
+		}
+
+		void clear() {
+			for (int i = 0; i < size; i++) {
+				used[usedSlots[i]] = false;
+				objects[usedSlots[i]] = null;
+			}
+			size = 0;
+		}
+
+		private void resize(int capacity) {
+			var oldOffsets = offsets;
+			var oldObjects = objects;
+			var oldSlots = usedSlots;
+			var entries = size;
+			offsets = new int[capacity];
+			objects = new Object[capacity];
+			used = new boolean[capacity];
+			usedSlots = new int[capacity / 2];
+			size = 0;
+			for (int i = 0; i < entries; i++) {
+				put(oldOffsets[oldSlots[i]], oldObjects[oldSlots[i]]);
+			}
+		}
+
+		private static int hash(int offset) {
+			var hash = offset * 0x9E3779B9;
+			return hash ^ (hash >>> 16);
+		}
+	}
+}
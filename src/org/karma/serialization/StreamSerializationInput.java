@@ -0,0 +1,93 @@
+package org.karma.serialization;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ *  Serialization Input that reads the data from a blocking channel as it goes.
+ *  The buffer starts at the window size and grows only to fit the largest value, the read bytes are dropped when it's refilled.
+ *  available() returns the buffered bytes, hasAvailable() reads more data if the buffer is empty.
+ *  References can't be tracked, their offsets start at the beginning of data.
+ */
+public class StreamSerializationInput extends SerializationInput implements AutoCloseable {
+	private final ReadableByteChannel channel;
+	private final int windowSize;
+	private boolean endOfStream;
+
+	StreamSerializationInput(ReadableByteChannel channel, int windowSize) {
+		super(QuickSerializer.EMPTY);
+		this.channel = channel;
+		this.windowSize = windowSize;
+		compact(windowSize);
+	}
+
+	@Override
+	boolean fill(long bytesNeeded) {
+		if (endOfStream || bytesNeeded >= Integer.MAX_VALUE - 8) {
+			return false;
+		}
+		var buffer = compact(Math.max(windowSize, (int) bytesNeeded + 1)); // The byte after the value must be there too
+		var unread = filled(0);
+		try {
+			while (unread <= bytesNeeded) {
+				var read = channel.read(ByteBuffer.wrap(buffer, unread, buffer.length - unread));
+				if (read < 0) {
+					endOfStream = true;
+					return false;
+				}
+				unread = filled(read);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return true;
+	}
+
+	/**
+		Set the byte order of numbers
+	 */
+	@Override
+	public StreamSerializationInput order(ByteOrder order) {
+		super.order(order);
+		return this;
+	}
+
+	/**
+		Set the encoding of numbers and object headers
+	 */
+	@Override
+	public StreamSerializationInput format(SerializationFormat format) {
+		super.format(format);
+		return this;
+	}
+
+	/**
+		Streams don't support references, it throws UnsupportedOperationException if track is true
+	 */
+	@Override
+	public StreamSerializationInput trackReferences(boolean track) {
+		if (track) {
+			throw new UnsupportedOperationException("References can't be tracked in a stream");
+		}
+		return this;
+	}
+
+	/**
+	    Returns <b>true</b> if there's more data. Reads the next bytes if the buffer is empty
+	 */
+	@Override
+	public boolean hasAvailable() {
+		return super.hasAvailable() || fill(1);
+	}
+
+	/**
+		Close the channel
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
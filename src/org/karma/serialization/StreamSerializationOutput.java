@@ -0,0 +1,106 @@
+package org.karma.serialization;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ *  Serialization Output that writes the data to a channel as it goes.
+ *  The data is written out between top-level values once the window is filled, so the memory use is the window
+ *  plus the largest object. The bytes are the same as getBytes() of a growing output would return, close() adds the end of data mark.
+ *  References can't be tracked, their offsets start at the beginning of data.
+ */
+public class StreamSerializationOutput extends SerializationOutput implements Flushable, AutoCloseable {
+	private final WritableByteChannel channel;
+	private final Flushable flushable; // The stream under the channel, or null
+	private final int windowSize;
+
+	StreamSerializationOutput(WritableByteChannel channel, Flushable flushable, int windowSize) {
+		super(QuickSerializer.CHUNK_POOL);
+		this.channel = channel;
+		this.flushable = flushable;
+		this.windowSize = windowSize;
+	}
+
+	@Override
+	boolean spill() {
+		if (size() < windowSize) {
+			return false;
+		}
+		try {
+			drainTo(channel);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return true;
+	}
+
+	/**
+		Set the byte order of numbers
+	 */
+	@Override
+	public StreamSerializationOutput order(ByteOrder order) {
+		super.order(order);
+		return this;
+	}
+
+	/**
+		Set the encoding of numbers and object headers
+	 */
+	@Override
+	public StreamSerializationOutput format(SerializationFormat format) {
+		super.format(format);
+		return this;
+	}
+
+	/**
+		Streams don't support references, it throws UnsupportedOperationException if track is true
+	 */
+	@Override
+	public StreamSerializationOutput trackReferences(boolean track) {
+		if (track) {
+			throw new UnsupportedOperationException("References can't be tracked in a stream");
+		}
+		return this;
+	}
+
+	/**
+		Streams don't support the index of objects, it throws UnsupportedOperationException if index is true
+	 */
+	@Override
+	public StreamSerializationOutput indexObjects(boolean index) {
+		if (index) {
+			throw new UnsupportedOperationException("Top-level objects can't be indexed in a stream");
+		}
+		return this;
+	}
+
+	/**
+		Write the buffered data to the channel. Must not be called from a serializer
+	 */
+	@Override
+	public void flush() throws IOException {
+		drainTo(channel);
+		if (flushable != null) {
+			flushable.flush();
+		}
+	}
+
+	/**
+		Write the buffered data and the end of data mark, then close the channel
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			writeTo(channel);
+			reset();
+			if (flushable != null) {
+				flushable.flush();
+			}
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package org.karma.serialization.collections;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ *  List of Double backed by a double[], the values are boxed only by get().
+ *  The List serializer decodes a list of non-null Doubles into it, and writes it without boxing.
+ */
+public final class DoubleList extends AbstractList<Double> implements RandomAccess {
+	private double[] values;
+	private int size;
+
+	public DoubleList() {
+		this(10);
+	}
+
+	public DoubleList(int capacity) {
+		this.values = new double[capacity];
+	}
+
+	/**
+		Returns the value without boxing
+	 */
+	public double getDouble(int index) {
+		return values[checkIndex(index)];
+	}
+
+	/**
+		Replaces the value without boxing, returns the previous one
+	 */
+	public double setDouble(int index, double value) {
+		var previous = values[checkIndex(index)];
+		values[index] = value;
+		return previous;
+	}
+
+	/**
+		Appends the value without boxing
+	 */
+	public void addDouble(double value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, Math.max(size * 2, 10));
+		}
+		values[size++] = value;
+		modCount++;
+	}
+
+	/**
+		Returns a copy of the values
+	 */
+	public double[] toDoubleArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	@Override
+	public Double get(int index) {
+		return getDouble(index);
+	}
+
+	@Override
+	public Double set(int index, Double value) {
+		return setDouble(index, value);
+	}
+
+	@Override
+	public void add(int index, Double value) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException(String.format("Index %s out of list (%s values)", index, size));
+		}
+		double number = value;
+		addDouble(number);
+		System.arraycopy(values, index, values, index + 1, size - 1 - index);
+		values[index] = number;
+	}
+
+	@Override
+	public Double remove(int index) {
+		var previous = values[checkIndex(index)];
+		System.arraycopy(values, index + 1, values, index, size - 1 - index);
+		size--;
+		modCount++;
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	private int checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.format("Index %s out of list (%s values)", index, size));
+		}
+		return index;
+	}
+}
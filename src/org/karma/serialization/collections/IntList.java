@@ -0,0 +1,104 @@
+package org.karma.serialization.collections;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ *  List of Integer backed by an int[], the values are boxed only by get().
+ *  The List serializer decodes a list of non-null Integers into it, and writes it without boxing.
+ */
+public final class IntList extends AbstractList<Integer> implements RandomAccess {
+	private int[] values;
+	private int size;
+
+	public IntList() {
+		this(10);
+	}
+
+	public IntList(int capacity) {
+		this.values = new int[capacity];
+	}
+
+	/**
+		Returns the value without boxing
+	 */
+	public int getInt(int index) {
+		return values[checkIndex(index)];
+	}
+
+	/**
+		Replaces the value without boxing, returns the previous one
+	 */
+	public int setInt(int index, int value) {
+		var previous = values[checkIndex(index)];
+		values[index] = value;
+		return previous;
+	}
+
+	/**
+		Appends the value without boxing
+	 */
+	public void addInt(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, Math.max(size * 2, 10));
+		}
+		values[size++] = value;
+		modCount++;
+	}
+
+	/**
+		Returns a copy of the values
+	 */
+	public int[] toIntArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	@Override
+	public Integer get(int index) {
+		return getInt(index);
+	}
+
+	@Override
+	public Integer set(int index, Integer value) {
+		return setInt(index, value);
+	}
+
+	@Override
+	public void add(int index, Integer value) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException(String.format("Index %s out of list (%s values)", index, size));
+		}
+		int number = value;
+		addInt(number);
+		System.arraycopy(values, index, values, index + 1, size - 1 - index);
+		values[index] = number;
+	}
+
+	@Override
+	public Integer remove(int index) {
+		var previous = values[checkIndex(index)];
+		System.arraycopy(values, index + 1, values, index, size - 1 - index);
+		size--;
+		modCount++;
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	private int checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.format("Index %s out of list (%s values)", index, size));
+		}
+		return index;
+	}
+}
@@ -0,0 +1,104 @@
+package org.karma.serialization.collections;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ *  List of Long backed by a long[], the values are boxed only by get().
+ *  The List serializer decodes a list of non-null Longs into it, and writes it without boxing.
+ */
+public final class LongList extends AbstractList<Long> implements RandomAccess {
+	private long[] values;
+	private int size;
+
+	public LongList() {
+		this(10);
+	}
+
+	public LongList(int capacity) {
+		this.values = new long[capacity];
+	}
+
+	/**
+		Returns the value without boxing
+	 */
+	public long getLong(int index) {
+		return values[checkIndex(index)];
+	}
+
+	/**
+		Replaces the value without boxing, returns the previous one
+	 */
+	public long setLong(int index, long value) {
+		var previous = values[checkIndex(index)];
+		values[index] = value;
+		return previous;
+	}
+
+	/**
+		Appends the value without boxing
+	 */
+	public void addLong(long value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, Math.max(size * 2, 10));
+		}
+		values[size++] = value;
+		modCount++;
+	}
+
+	/**
+		Returns a copy of the values
+	 */
+	public long[] toLongArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	@Override
+	public Long get(int index) {
+		return getLong(index);
+	}
+
+	@Override
+	public Long set(int index, Long value) {
+		return setLong(index, value);
+	}
+
+	@Override
+	public void add(int index, Long value) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException(String.format("Index %s out of list (%s values)", index, size));
+		}
+		long number = value;
+		addLong(number);
+		System.arraycopy(values, index, values, index + 1, size - 1 - index);
+		values[index] = number;
+	}
+
+	@Override
+	public Long remove(int index) {
+		var previous = values[checkIndex(index)];
+		System.arraycopy(values, index + 1, values, index, size - 1 - index);
+		size--;
+		modCount++;
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	private int checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.format("Index %s out of list (%s values)", index, size));
+		}
+		return index;
+	}
+}
@@ -0,0 +1,356 @@
+package org.karma.serialization.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ *  Generates a Serializer for every record or simple class annotated with @SerializerObject.
+ *  The serializer writes the fields one by one with the primitive writes of SerializationOutput, without reflection.
+ *  If all fields are primitives, SerializerObject.bytes() is set to the sum of their largest encoded widths, so the COMPACT size header is short,
+ *  otherwise it's set to Integer.MAX_VALUE, so the size of an object isn't limited.
+ *  Generated serializers are listed in META-INF/services and QuickSerializer registers them on start.
+ *
+ *  Supported field types: primitives, String, arrays of byte, short, int, long, float and double,
+ *  and any type with a registered serializer (written with writeObject()).
+ *  A simple class needs a constructor without parameters and non-private fields or getters and setters.
+ */
+@SupportedAnnotationTypes("org.karma.serialization.SerializerObject")
+public class SerializerProcessor extends AbstractProcessor {
+	private static final String SERIALIZER = "org.karma.serialization.Serializer";
+	private final List<String> generated = new ArrayList<>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (var annotation : annotations) {
+			for (var element : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(annotation))) {
+				if (!isSerializer(element)) { // Hand-written serializers are registered by their users
+					generate(element);
+				}
+			}
+		}
+		if (roundEnv.processingOver() && !generated.isEmpty()) {
+			writeServices();
+		}
+		return false;
+	}
+
+	private boolean isSerializer(TypeElement element) {
+		var serializer = processingEnv.getElementUtils().getTypeElement(SERIALIZER);
+		var types = processingEnv.getTypeUtils();
+		return types.isAssignable(types.erasure(element.asType()), types.erasure(serializer.asType()));
+	}
+
+	private void generate(TypeElement element) {
+		if (!element.getTypeParameters().isEmpty()) {
+			error(element, "Generic types aren't supported");
+			return;
+		}
+		var fields = fieldsOf(element);
+		if (fields == null) {
+			return;
+		}
+		var packageName = processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().toString();
+		var typeName = element.getQualifiedName().toString();
+		var serializerName = serializerName(element);
+		var annotation = annotationOf(element);
+		var signature = (AnnotationValue) null;
+		var bytes = (AnnotationValue) null;
+		for (var value : annotation.getElementValues().entrySet()) {
+			var name = value.getKey().getSimpleName().toString();
+			if (name.equals("signature")) {
+				signature = value.getValue();
+			} else if (name.equals("bytes")) {
+				bytes = value.getValue();
+			}
+		}
+		var signatureValue = ((Number) signature.getValue()).intValue() & 0xffff;
+		var bytesValue = bytes != null ? bytes.toString() : fixedBytes(fields);
+
+		try (var out = new PrintWriter(processingEnv.getFiler().createSourceFile(packageName.isEmpty() ? serializerName : packageName + "." + serializerName, element).openWriter())) {
+			if (!packageName.isEmpty()) {
+				out.println("package " + packageName + ";");
+				out.println();
+			}
+			out.println("import org.karma.serialization.SerializationInput;");
+			out.println("import org.karma.serialization.SerializationOutput;");
+			out.println("import org.karma.serialization.Serializer;");
+			out.println("import org.karma.serialization.SerializerObject;");
+			out.println();
+			out.println("// Generated by SerializerProcessor from " + typeName);
+			out.println("@SerializerObject(signature = " + (signatureValue > Short.MAX_VALUE ? "(short) 0x" : "0x") + Integer.toHexString(signatureValue) + ", bytes = " + bytesValue + ")");
+			out.println("public final class " + serializerName + " implements Serializer<" + typeName + "> {");
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic void serialize(SerializationOutput data, " + typeName + " object) {");
+			for (int i = 0; i < fields.size(); i++) {
+				writeField(out, fields.get(i), i);
+			}
+			out.println("\t}");
+			out.println();
+			out.println("\t@Override");
+			out.println("\tpublic " + typeName + " deserialize(SerializationInput data) {");
+			for (int i = 0; i < fields.size(); i++) {
+				readField(out, fields.get(i), i);
+			}
+			if (element.getKind() == ElementKind.RECORD) {
+				var arguments = new StringBuilder();
+				for (int i = 0; i < fields.size(); i++) {
+					arguments.append(i == 0 ? "v" : ", v").append(i);
+				}
+				out.println("\t\treturn new " + typeName + "(" + arguments + ");");
+			} else {
+				out.println("\t\tvar object = new " + typeName + "();");
+				for (int i = 0; i < fields.size(); i++) {
+					out.println("\t\t" + fields.get(i).setter("v" + i) + ";");
+				}
+				out.println("\t\treturn object;");
+			}
+			out.println("\t}");
+			out.println();
+			out.println("}");
+		} catch (IOException e) {
+			error(element, "Can't write the serializer: " + e.getMessage());
+			return;
+		}
+		generated.add(packageName.isEmpty() ? serializerName : packageName + "." + serializerName);
+	}
+
+	/**
+		Returns the serialized fields in the declaration order, or null after an error
+	 */
+	private List<Field> fieldsOf(TypeElement element) {
+		var fields = new ArrayList<Field>();
+		if (element.getKind() == ElementKind.RECORD) {
+			for (var component : element.getRecordComponents()) {
+				var name = component.getSimpleName().toString();
+				fields.add(new Field(name, component.asType(), "object." + name + "()", null));
+			}
+			return checkTypes(element, fields);
+		}
+		if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)) {
+			error(element, "Only records and simple classes are supported");
+			return null;
+		}
+		var constructors = ElementFilter.constructorsIn(element.getEnclosedElements());
+		if (constructors.stream().noneMatch(constructor -> constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE))) {
+			error(element, "A class needs a non-private constructor without parameters");
+			return null;
+		}
+		var methods = ElementFilter.methodsIn(element.getEnclosedElements());
+		for (var field : ElementFilter.fieldsIn(element.getEnclosedElements())) {
+			var modifiers = field.getModifiers();
+			if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+				continue;
+			}
+			var name = field.getSimpleName().toString();
+			if (modifiers.contains(Modifier.FINAL)) {
+				error(field, "Final fields of a class can't be set, use a record");
+				return null;
+			}
+			if (!modifiers.contains(Modifier.PRIVATE)) {
+				fields.add(new Field(name, field.asType(), "object." + name, "object." + name + " = %s"));
+				continue;
+			}
+			var capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+			var getter = findMethod(methods, (field.asType().getKind() == TypeKind.BOOLEAN ? "is" : "get") + capitalized, 0);
+			var setter = findMethod(methods, "set" + capitalized, 1);
+			if (getter == null || setter == null) {
+				error(field, "A private field needs a getter and a setter");
+				return null;
+			}
+			fields.add(new Field(name, field.asType(), "object." + getter + "()", "object." + setter + "(%s)"));
+		}
+		return checkTypes(element, fields);
+	}
+
+	private static String findMethod(List<ExecutableElement> methods, String name, int parameters) {
+		for (var method : methods) {
+			if (method.getSimpleName().contentEquals(name) && method.getParameters().size() == parameters && !method.getModifiers().contains(Modifier.PRIVATE)) {
+				return name;
+			}
+		}
+		return null;
+	}
+
+	private List<Field> checkTypes(TypeElement element, List<Field> fields) {
+		for (var field : fields) {
+			if (field.type().getKind() == TypeKind.ARRAY && bulkName(field.type()) == null) {
+				error(element, "Field " + field.name() + ": only arrays of byte, short, int, long, float and double are supported");
+				return null;
+			}
+			if (field.type().getKind() == TypeKind.TYPEVAR) {
+				error(element, "Field " + field.name() + ": type variables aren't supported");
+				return null;
+			}
+		}
+		return fields;
+	}
+
+	private void writeField(PrintWriter out, Field field, int index) {
+		var type = field.type();
+		var value = "v" + index;
+		out.println("\t\tvar " + value + " = " + field.getter() + "; // " + field.name());
+		if (type.getKind().isPrimitive()) {
+			out.println("\t\tdata.write" + primitiveName(type) + "(" + value + ");");
+		} else if (isString(type)) {
+			out.println("\t\tdata.writeString(" + value + ");");
+		} else if (type.getKind() == TypeKind.ARRAY) {
+			out.println("\t\tif (" + value + " == null) {");
+			out.println("\t\t\tdata.writeInt(-1); // A negative length means a null array");
+			out.println("\t\t} else {");
+			out.println("\t\t\tdata.writeInt(" + value + ".length);");
+			out.println("\t\t\tdata.write" + bulkName(type) + "(" + value + ", 0, " + value + ".length);");
+			out.println("\t\t}");
+		} else {
+			out.println("\t\tif (" + value + " == null) {");
+			out.println("\t\t\tdata.writeNull(" + erasure(type) + ".class);");
+			out.println("\t\t} else {");
+			out.println("\t\t\tdata.writeObject(" + value + ");");
+			out.println("\t\t}");
+		}
+	}
+
+	private void readField(PrintWriter out, Field field, int index) {
+		var type = field.type();
+		var value = "v" + index;
+		if (type.getKind().isPrimitive()) {
+			out.println("\t\tvar " + value + " = data.read" + primitiveName(type) + "(); // " + field.name());
+		} else if (isString(type)) {
+			out.println("\t\tvar " + value + " = data.readString(); // " + field.name());
+		} else if (type.getKind() == TypeKind.ARRAY) {
+			var componentType = ((ArrayType) type).getComponentType();
+			out.println("\t\t" + type + " " + value + " = null; // " + field.name());
+			out.println("\t\tvar " + value + "Length = data.readInt();");
+			out.println("\t\tif (" + value + "Length >= 0) {");
+			out.println("\t\t\tif ((long) " + value + "Length * " + elementWidth(type) + " > data.available()) {");
+			out.println("\t\t\t\tthrow new IllegalArgumentException(String.format(\"Malformed array of %s elements\", " + value + "Length));");
+			out.println("\t\t\t}");
+			out.println("\t\t\t" + value + " = new " + componentType + "[" + value + "Length];");
+			out.println("\t\t\tdata.read" + bulkName(type) + "(" + value + ", 0, " + value + "Length);");
+			out.println("\t\t}");
+		} else {
+			out.println("\t\t" + type + " " + value + " = data.readObject(); // " + field.name());
+		}
+	}
+
+	/**
+		Returns the sum of the largest encoded widths of the fields and the end of object mark if they are all primitives,
+		or Integer.MAX_VALUE if a field has a variable size
+	 */
+	private static String fixedBytes(List<Field> fields) {
+		var bytes = 1; // End of object mark
+		for (var field : fields) {
+			switch (field.type().getKind()) {
+				case BOOLEAN, BYTE -> bytes += 1;
+				case SHORT -> bytes += 2;
+				case CHAR, FLOAT -> bytes += 4;
+				case INT -> bytes += 5; // 4 bytes or a varint of up to 5 bytes in COMPACT format
+				case DOUBLE -> bytes += 8;
+				case LONG -> bytes += 10;
+				default -> {
+					return "Integer.MAX_VALUE";
+				}
+			}
+		}
+		return Integer.toString(bytes);
+	}
+
+	private static String primitiveName(TypeMirror type) {
+		var name = type.getKind().name().toLowerCase();
+		return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+	}
+
+	private static String bulkName(TypeMirror type) {
+		return switch (((ArrayType) type).getComponentType().getKind()) {
+			case BYTE -> "Bytes";
+			case SHORT -> "Shorts";
+			case INT -> "Ints";
+			case LONG -> "Longs";
+			case FLOAT -> "Floats";
+			case DOUBLE -> "Doubles";
+			default -> null;
+		};
+	}
+
+	/**
+		Returns the bytes of an array element, bulk reads don't use the COMPACT encoding
+	 */
+	private static int elementWidth(TypeMirror type) {
+		return switch (((ArrayType) type).getComponentType().getKind()) {
+			case SHORT -> 2;
+			case INT, FLOAT -> 4;
+			case LONG, DOUBLE -> 8;
+			default -> 1;
+		};
+	}
+
+	private boolean isString(TypeMirror type) {
+		return type.getKind() == TypeKind.DECLARED && processingEnv.getTypeUtils().erasure(type).toString().equals("java.lang.String");
+	}
+
+	private String erasure(TypeMirror type) {
+		return processingEnv.getTypeUtils().erasure(type).toString();
+	}
+
+	/**
+		Vector2d gets Vector2dSerializer, a nested Outer.Inner gets Outer_InnerSerializer
+	 */
+	private static String serializerName(TypeElement element) {
+		var name = element.getSimpleName().toString();
+		for (var enclosing = element.getEnclosingElement(); enclosing instanceof TypeElement type; enclosing = type.getEnclosingElement()) {
+			name = type.getSimpleName() + "_" + name;
+		}
+		return name + "Serializer";
+	}
+
+	private static AnnotationMirror annotationOf(TypeElement element) {
+		for (var annotation : element.getAnnotationMirrors()) {
+			if (annotation.getAnnotationType().toString().equals("org.karma.serialization.SerializerObject")) {
+				return annotation;
+			}
+		}
+		throw new IllegalStateException("No @SerializerObject on " + element);
+	}
+
+	private void writeServices() {
+		try (var out = new PrintWriter(processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + SERIALIZER).openWriter())) {
+			for (var serializer : generated) {
+				out.println(serializer);
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Can't write the serializer list: " + e.getMessage());
+		}
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+
+	/**
+		A serialized field. The setter is a format with the value in place of %s, it's null for record components
+	 */
+	private record Field(String name, TypeMirror type, String getter, String setter) {
+		String setter(String value) {
+			return String.format(setter, value);
+		}
+	}
+}
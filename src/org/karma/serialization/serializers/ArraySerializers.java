@@ -0,0 +1,191 @@
+package org.karma.serialization.serializers;
+
+import org.karma.serialization.SerializationInput;
+import org.karma.serialization.SerializationOutput;
+import org.karma.serialization.Serializer;
+import org.karma.serialization.SerializerObject;
+
+/**
+ *  Serializers of the primitive arrays, they have the reserved signatures 0x16-0x1D.
+ *  An array is written as an int length and the elements, every element takes at least 1 byte. Numbers are written with bulk writes, so they have a fixed width in every format
+ */
+public final class ArraySerializers {
+	private ArraySerializers() {
+	}
+
+	@SerializerObject(signature = 0x16, bytes = Integer.MAX_VALUE)
+	public static final class BooleanArraySerializer implements Serializer<boolean[]> {
+
+		@Override
+		public void serialize(SerializationOutput data, boolean[] array) {
+			data.writeInt(array.length);
+			for (var element : array) {
+				data.writeBoolean(element);
+			}
+		}
+
+		@Override
+		public boolean[] deserialize(SerializationInput data) {
+			var length = data.readInt();
+			if (length < 0 || length > data.available()) {
+				throw new IllegalArgumentException(String.format("Malformed array of %s elements", length));
+			}
+			var array = new boolean[length];
+			for (int i = 0; i < length; i++) {
+				array[i] = data.readBoolean();
+			}
+			return array;
+		}
+	}
+
+	@SerializerObject(signature = 0x17, bytes = Integer.MAX_VALUE)
+	public static final class ByteArraySerializer implements Serializer<byte[]> {
+
+		@Override
+		public void serialize(SerializationOutput data, byte[] array) {
+			data.writeInt(array.length);
+			data.writeBytes(array, 0, array.length);
+		}
+
+		@Override
+		public byte[] deserialize(SerializationInput data) {
+			var length = data.readInt();
+			if (length < 0 || length > data.available()) {
+				throw new IllegalArgumentException(String.format("Malformed array of %s elements", length));
+			}
+			var array = new byte[length];
+			data.readBytes(array, 0, length);
+			return array;
+		}
+	}
+
+	@SerializerObject(signature = 0x18, bytes = Integer.MAX_VALUE)
+	public static final class ShortArraySerializer implements Serializer<short[]> {
+
+		@Override
+		public void serialize(SerializationOutput data, short[] array) {
+			data.writeInt(array.length);
+			data.writeShorts(array, 0, array.length);
+		}
+
+		@Override
+		public short[] deserialize(SerializationInput data) {
+			var length = data.readInt();
+			if (length < 0 || length > data.available()) {
+				throw new IllegalArgumentException(String.format("Malformed array of %s elements", length));
+			}
+			var array = new short[length];
+			data.readShorts(array, 0, length);
+			return array;
+		}
+	}
+
+	@SerializerObject(signature = 0x19, bytes = Integer.MAX_VALUE)
+	public static final class CharArraySerializer implements Serializer<char[]> {
+
+		@Override
+		public void serialize(SerializationOutput data, char[] array) {
+			data.writeInt(array.length);
+			for (var element : array) {
+				data.writeChar(element);
+			}
+		}
+
+		@Override
+		public char[] deserialize(SerializationInput data) {
+			var length = data.readInt();
+			if (length < 0 || length > data.available()) {
+				throw new IllegalArgumentException(String.format("Malformed array of %s elements", length));
+			}
+			var array = new char[length];
+			for (int i = 0; i < length; i++) {
+				array[i] = data.readChar();
+			}
+			return array;
+		}
+	}
+
+	@SerializerObject(signature = 0x1A, bytes = Integer.MAX_VALUE)
+	public static final class IntArraySerializer implements Serializer<int[]> {
+
+		@Override
+		public void serialize(SerializationOutput data, int[] array) {
+			data.writeInt(array.length);
+			data.writeInts(array, 0, array.length);
+		}
+
+		@Override
+		public int[] deserialize(SerializationInput data) {
+			var length = data.readInt();
+			if (length < 0 || length > data.available()) {
+				throw new IllegalArgumentException(String.format("Malformed array of %s elements", length));
+			}
+			var array = new int[length];
+			data.readInts(array, 0, length);
+			return array;
+		}
+	}
+
+	@SerializerObject(signature = 0x1B, bytes = Integer.MAX_VALUE)
+	public static final class LongArraySerializer implements Serializer<long[]> {
+
+		@Override
+		public void serialize(SerializationOutput data, long[] array) {
+			data.writeInt(array.length);
+			data.writeLongs(array, 0, array.length);
+		}
+
+		@Override
+		public long[] deserialize(SerializationInput data) {
+			var length = data.readInt();
+			if (length < 0 || length > data.available()) {
+				throw new IllegalArgumentException(String.format("Malformed array of %s elements", length));
+			}
+			var array = new long[length];
+			data.readLongs(array, 0, length);
+			return array;
+		}
+	}
+
+	@SerializerObject(signature = 0x1C, bytes = Integer.MAX_VALUE)
+	public static final class FloatArraySerializer implements Serializer<float[]> {
+
+		@Override
+		public void serialize(SerializationOutput data, float[] array) {
+			data.writeInt(array.length);
+			data.writeFloats(array, 0, array.length);
+		}
+
+		@Override
+		public float[] deserialize(SerializationInput data) {
+			var length = data.readInt();
+			if (length < 0 || length > data.available()) {
+				throw new IllegalArgumentException(String.format("Malformed array of %s elements", length));
+			}
+			var array = new float[length];
+			data.readFloats(array, 0, length);
+			return array;
+		}
+	}
+
+	@SerializerObject(signature = 0x1D, bytes = Integer.MAX_VALUE)
+	public static final class DoubleArraySerializer implements Serializer<double[]> {
+
+		@Override
+		public void serialize(SerializationOutput data, double[] array) {
+			data.writeInt(array.length);
+			data.writeDoubles(array, 0, array.length);
+		}
+
+		@Override
+		public double[] deserialize(SerializationInput data) {
+			var length = data.readInt();
+			if (length < 0 || length > data.available()) {
+				throw new IllegalArgumentException(String.format("Malformed array of %s elements", length));
+			}
+			var array = new double[length];
+			data.readDoubles(array, 0, length);
+			return array;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package org.karma.serialization.serializers;
+
+import org.karma.serialization.SerializationInput;
+import org.karma.serialization.SerializationOutput;
+import org.karma.serialization.Serializer;
+import org.karma.serialization.SerializerObject;
+
+/**
+ *  Serializers of the boxed primitives, they have the reserved signatures 0x1E-0x25.
+ *  A collection of one boxed type writes the signature once and then only the numbers
+ */
+public final class BoxedSerializers {
+	private BoxedSerializers() {
+	}
+
+	@SerializerObject(signature = 0x1E, bytes = 2)
+	public static final class BooleanSerializer implements Serializer<Boolean> {
+
+		@Override
+		public void serialize(SerializationOutput data, Boolean value) {
+			data.writeBoolean(value);
+		}
+
+		@Override
+		public Boolean deserialize(SerializationInput data) {
+			return data.readBoolean();
+		}
+	}
+
+	@SerializerObject(signature = 0x1F, bytes = 2)
+	public static final class ByteSerializer implements Serializer<Byte> {
+
+		@Override
+		public void serialize(SerializationOutput data, Byte value) {
+			data.writeByte(value);
+		}
+
+		@Override
+		public Byte deserialize(SerializationInput data) {
+			return data.readByte();
+		}
+	}
+
+	@SerializerObject(signature = 0x20, bytes = 3)
+	public static final class ShortSerializer implements Serializer<Short> {
+
+		@Override
+		public void serialize(SerializationOutput data, Short value) {
+			data.writeShort(value);
+		}
+
+		@Override
+		public Short deserialize(SerializationInput data) {
+			return data.readShort();
+		}
+	}
+
+	@SerializerObject(signature = 0x21, bytes = 5)
+	public static final class CharacterSerializer implements Serializer<Character> {
+
+		@Override
+		public void serialize(SerializationOutput data, Character value) {
+			data.writeChar(value);
+		}
+
+		@Override
+		public Character deserialize(SerializationInput data) {
+			return data.readChar();
+		}
+	}
+
+	@SerializerObject(signature = 0x22, bytes = 6)
+	public static final class IntegerSerializer implements Serializer<Integer> {
+
+		@Override
+		public void serialize(SerializationOutput data, Integer value) {
+			data.writeInt(value);
+		}
+
+		@Override
+		public Integer deserialize(SerializationInput data) {
+			return data.readInt();
+		}
+	}
+
+	@SerializerObject(signature = 0x23, bytes = 11)
+	public static final class LongSerializer implements Serializer<Long> {
+
+		@Override
+		public void serialize(SerializationOutput data, Long value) {
+			data.writeLong(value);
+		}
+
+		@Override
+		public Long deserialize(SerializationInput data) {
+			return data.readLong();
+		}
+	}
+
+	@SerializerObject(signature = 0x24, bytes = 5)
+	public static final class FloatSerializer implements Serializer<Float> {
+
+		@Override
+		public void serialize(SerializationOutput data, Float value) {
+			data.writeFloat(value);
+		}
+
+		@Override
+		public Float deserialize(SerializationInput data) {
+			return data.readFloat();
+		}
+	}
+
+	@SerializerObject(signature = 0x25, bytes = 9)
+	public static final class DoubleSerializer implements Serializer<Double> {
+
+		@Override
+		public void serialize(SerializationOutput data, Double value) {
+			data.writeDouble(value);
+		}
+
+		@Override
+		public Double deserialize(SerializationInput data) {
+			return data.readDouble();
+		}
+	}
+}
@@ -10,22 +10,12 @@ public class StringSerializer implements Serializer<String> {
 
 	@Override
 	public void serialize(SerializationOutput data, String string) {
-		var stringBytes = string.getBytes();
-		var stringLength = stringBytes.length;
-		data.writeInt(stringLength); // String length
-		for (int i = 0; i < stringLength; i++) {
-			data.writeByte(stringBytes[i]); // Some char
-		}
+		data.writeString(string); // UTF-8 length and chars
 	}
 
 	@Override
 	public String deserialize(SerializationInput data) {
-		var stringLength = data.readInt(); // String length
-		var stringBytes = new byte[stringLength];
-		for (int i = 0; i < stringLength; i++) {
-			stringBytes[i] = data.readByte(); // Some char
-		}
-		return new String(stringBytes); // Return result
+		return data.readString();
 	}
 
 }